@@ -0,0 +1,127 @@
+package ace.actually.EM4ES.gametest;
+
+import ace.actually.EM4ES.EM4ES;
+import ace.actually.EM4ES.LatencyHistogram;
+import ace.actually.EM4ES.SearchMetrics;
+import ace.actually.EM4ES.gametest.mixin.VillagerEntityInvoker;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.passive.MerchantEntity;
+import net.minecraft.entity.passive.VillagerEntity;
+import net.minecraft.entity.passive.WanderingTraderEntity;
+import net.minecraft.item.Items;
+import net.minecraft.test.GameTest;
+import net.minecraft.test.GameTestException;
+import net.minecraft.test.TestContext;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.village.TradeOffer;
+import net.minecraft.village.VillagerProfession;
+import net.minecraft.world.GameRules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spawns a crowd of cartographers and wandering traders and pushes them through the real hooks:
+ * initial fills ({@code fillRecipes}), a level-up for every cartographer, then every map trade bought
+ * until it sells out ({@code afterUsing}). Fails if the server tick, the main-thread trade building or
+ * the placeholder-to-map latency go over their thresholds.
+ * <p>
+ * Sizes and thresholds are system properties, for example
+ * {@code -Dem4es.loadtest.cartographers=400 -Dem4es.loadtest.maxP99TickMs=40}.
+ */
+public class MapLoadGameTest implements FabricGameTest {
+
+    // Each phase gets this long before the next one starts
+    private static final int PHASE_TICKS = 600;
+
+    private static final int CARTOGRAPHERS = Integer.getInteger("em4es.loadtest.cartographers", 200);
+    private static final int TRADERS = Integer.getInteger("em4es.loadtest.traders", 100);
+    private static final double MAX_P99_TICK_MS = doubleProperty("em4es.loadtest.maxP99TickMs", 50.0);
+    private static final double MAX_P99_TRADE_BUILD_MS = doubleProperty("em4es.loadtest.maxP99TradeBuildMs", 5.0);
+    private static final double MAX_P99_PLACEHOLDER_MS = doubleProperty("em4es.loadtest.maxP99PlaceholderMs", 15_000.0);
+
+    @GameTest(templateName = EMPTY_STRUCTURE, tickLimit = PHASE_TICKS * 3 + 100)
+    public void massMapGeneration(TestContext context) {
+        // Hundreds of merchants in an 8x8 box would otherwise crush each other
+        context.getWorld().getGameRules().get(GameRules.MAX_ENTITY_CRAMMING).set(0, context.getWorld().getServer());
+        SearchMetrics.reset();
+
+        List<VillagerEntity> cartographers = new ArrayList<>(CARTOGRAPHERS);
+        List<WanderingTraderEntity> traders = new ArrayList<>(TRADERS);
+
+        // Phase 1: spawn and let the initial fills run
+        for (int i = 0; i < CARTOGRAPHERS; i++) {
+            VillagerEntity villager = context.spawnEntity(EntityType.VILLAGER, spawnPos(i));
+            villager.setAiDisabled(true);
+            villager.setInvulnerable(true);
+            villager.setVillagerData(villager.getVillagerData().withProfession(VillagerProfession.CARTOGRAPHER).withLevel(1));
+            villager.getOffers();
+            cartographers.add(villager);
+        }
+        for (int i = 0; i < TRADERS; i++) {
+            WanderingTraderEntity trader = context.spawnEntity(EntityType.WANDERING_TRADER, spawnPos(CARTOGRAPHERS + i));
+            trader.setAiDisabled(true);
+            trader.setInvulnerable(true);
+            trader.setDespawnDelay(PHASE_TICKS * 10);
+            trader.getOffers();
+            traders.add(trader);
+        }
+
+        // Phase 2: level every cartographer up once
+        context.waitAndRun(PHASE_TICKS, () -> {
+            for (VillagerEntity villager : cartographers) {
+                ((VillagerEntityInvoker) villager).em4es$levelUp();
+            }
+        });
+
+        // Phase 3: buy every map until it sells out, which triggers the restocks
+        context.waitAndRun(PHASE_TICKS * 2L, () -> {
+            for (VillagerEntity villager : cartographers) exhaustMapTrades(villager);
+            for (WanderingTraderEntity trader : traders) exhaustMapTrades(trader);
+        });
+
+        context.waitAndRun(PHASE_TICKS * 3L, () -> {
+            LatencyHistogram.Snapshot tick = SearchMetrics.TICK.snapshot();
+            LatencyHistogram.Snapshot tradeBuild = SearchMetrics.TRADE_BUILD.snapshot();
+            LatencyHistogram.Snapshot placeholder = SearchMetrics.PLACEHOLDER.snapshot();
+            LatencyHistogram.Snapshot search = SearchMetrics.SEARCH.snapshot();
+
+            EM4ES.LOGGER.info("EM4ES load test with {} cartographers and {} traders", CARTOGRAPHERS, TRADERS);
+            EM4ES.LOGGER.info("  tick:        {}", tick);
+            EM4ES.LOGGER.info("  trade build: {}", tradeBuild);
+            EM4ES.LOGGER.info("  placeholder: {}", placeholder);
+            EM4ES.LOGGER.info("  search:      {}", search);
+
+            List<String> failures = new ArrayList<>();
+            check(failures, "p99 tick", tick.p99Ms(), MAX_P99_TICK_MS);
+            check(failures, "p99 createTradeFromSearch", tradeBuild.p99Ms(), MAX_P99_TRADE_BUILD_MS);
+            check(failures, "p99 placeholder-to-map", placeholder.p99Ms(), MAX_P99_PLACEHOLDER_MS);
+            if (placeholder.count() == 0) failures.add("no placeholder was ever resolved");
+
+            if (!failures.isEmpty()) throw new GameTestException(String.join("; ", failures));
+            context.complete();
+        });
+    }
+
+    private static void exhaustMapTrades(MerchantEntity merchant) {
+        // afterUsing swaps entries in the list, so work on a copy
+        for (TradeOffer offer : new ArrayList<>(merchant.getOffers())) {
+            if (!offer.getSellItem().isOf(Items.FILLED_MAP)) continue;
+            while (!offer.isDisabled()) merchant.trade(offer);
+        }
+    }
+
+    private static void check(List<String> failures, String what, double actualMs, double limitMs) {
+        if (actualMs > limitMs) failures.add(String.format("%s %.1f ms > %.1f ms", what, actualMs, limitMs));
+    }
+
+    private static BlockPos spawnPos(int index) {
+        return new BlockPos(1 + index % 6, 2, 1 + (index / 6) % 6);
+    }
+
+    private static double doubleProperty(String key, double fallback) {
+        String value = System.getProperty(key);
+        return value != null ? Double.parseDouble(value) : fallback;
+    }
+}
@@ -0,0 +1,13 @@
+package ace.actually.EM4ES.gametest.mixin;
+
+import net.minecraft.entity.passive.VillagerEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Invoker;
+
+@Mixin(VillagerEntity.class)
+public interface VillagerEntityInvoker {
+
+    // Bumps the level and calls fillRecipes, exactly like a real level-up
+    @Invoker("levelUp")
+    void em4es$levelUp();
+}
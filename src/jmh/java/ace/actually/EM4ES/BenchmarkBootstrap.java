@@ -0,0 +1,21 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+
+/**
+ * Loads the vanilla registries once per benchmark JVM, which item lookups and identifiers need.
+ */
+final class BenchmarkBootstrap {
+
+    private static boolean done;
+
+    private BenchmarkBootstrap() {}
+
+    static synchronized void init() {
+        if (done) return;
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        done = true;
+    }
+}
@@ -0,0 +1,99 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.gen.structure.Structure;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Candidate selection in {@code ExplorerMapTradeFactory.findStructures}: the adaptive sampler and the
+ * weighted alias draw of {@link StructureSampler} against the old uniform shuffle. The adaptive sampler is
+ * trained once with a fixed seed so every run sees the same hit rates and costs; every fourth structure
+ * is already offered and has to be skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CandidateSelectionBenchmark {
+
+    private static final long SEED = 20240917L;
+
+    @Param({"35", "400"})
+    public int candidates;
+
+    @Param({"1", "20"})
+    public int count;
+
+    private List<RegistryKey<Structure>> keys;
+    private StructureSampler sampler;
+    private IntPredicate offered;
+    private Set<Identifier> offeredIds;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkBootstrap.init();
+
+        keys = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            keys.add(RegistryKey.of(RegistryKeys.STRUCTURE, Identifier.of("bench", "structure_" + i)));
+        }
+
+        List<Identifier> ids = new ArrayList<>(candidates);
+        double[] weights = new double[candidates];
+        for (int i = 0; i < candidates; i++) {
+            ids.add(keys.get(i).getValue());
+            weights[i] = 1 + i % 4;
+        }
+        sampler = StructureSampler.of(EM4ESConfig.DEFAULTS, ids, Collections.nCopies(candidates, null), weights);
+        offered = i -> i % 4 == 0;
+        offeredIds = new HashSet<>();
+        for (int i = 0; i < candidates; i += 4) offeredIds.add(ids.get(i));
+
+        // Some structures are common and cheap, some rare and slow
+        AdaptiveSampler.clear();
+        Random random = new Random(SEED);
+        for (int search = 0; search < 200; search++) {
+            Set<Identifier> found = new HashSet<>();
+            Set<Identifier> absent = new HashSet<>();
+            Map<Identifier, Long> nanos = new HashMap<>();
+            for (RegistryKey<Structure> key : keys) {
+                int rarity = Math.floorMod(key.getValue().hashCode(), 10);
+                (random.nextInt(10) >= rarity ? found : absent).add(key.getValue());
+                nanos.put(key.getValue(), 100_000L * (1 + rarity));
+            }
+            AdaptiveSampler.record(new StructureLocateEngine.Result(List.of(), List.of(), absent, found, nanos), 32);
+        }
+    }
+
+    @Benchmark
+    public int adaptive() {
+        int limit = Math.max(EM4ES.config().searchSampleSize, count);
+        return AdaptiveSampler.select(sampler, offered, 32, count, limit, StructureSampler.picks(limit));
+    }
+
+    @Benchmark
+    public int weightedAlias() {
+        int limit = Math.max(EM4ES.config().searchSampleSize, count);
+        return sampler.sample(offered, limit, StructureSampler.picks(limit));
+    }
+
+    @Benchmark
+    public List<RegistryKey<Structure>> uniformShuffle() {
+        List<RegistryKey<Structure>> shuffled = new ArrayList<>(keys);
+        shuffled.removeIf(key -> offeredIds.contains(key.getValue()));
+        Collections.shuffle(shuffled);
+        return new ArrayList<>(shuffled.subList(0, Math.min(shuffled.size(), Math.max(EM4ES.config().searchSampleSize, count))));
+    }
+}
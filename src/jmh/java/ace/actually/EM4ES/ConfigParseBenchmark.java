@@ -0,0 +1,53 @@
+package ace.actually.EM4ES;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the config into an {@link EM4ESConfig} snapshot, as done at startup and by {@code /em4es reload},
+ * on a config shaped like the generated default (settings first, then one line per structure).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigParseBenchmark {
+
+    // Vanilla has ~35 structures, large modpacks several hundred
+    @Param({"35", "500"})
+    public int structures;
+
+    private List<String> lines;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkBootstrap.init();
+
+        lines = new ArrayList<>();
+        lines.add("# EM4ES Configuration");
+        lines.add("search.sampleSize = 40");
+        lines.add("search.maxTimeMs = 1500");
+        lines.add("trader.mapCount = 3");
+        lines.add("cartographer.level1.mapCount = 2");
+        lines.add("loot.chance = 0.05");
+        lines.add("");
+        lines.add("default.cost = 1 minecraft:emerald");
+        for (int i = 0; i < structures; i++) {
+            String item = i % 3 == 0 ? "minecraft:emerald" : i % 3 == 1 ? "minecraft:compass" : "minecraft:gold_ingot";
+            lines.add("bench:structure_" + i + " = " + (1 + i % 16) + " " + item);
+        }
+    }
+
+    @Benchmark
+    public EM4ESConfig.CostTable parseCosts() {
+        return EM4ESConfig.parseCostLines(lines);
+    }
+
+    @Benchmark
+    public EM4ESConfig parseSnapshot() throws IOException {
+        return EM4ESConfig.parse(lines);
+    }
+}
@@ -0,0 +1,27 @@
+package ace.actually.EM4ES;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MapCost#fromString} for the shapes of value found in real config files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MapCostBenchmark {
+
+    @Param({"12 minecraft:emerald", "3   minecraft:diamond", "1 mymod:missing_item", "twelve minecraft:emerald"})
+    public String value;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkBootstrap.init();
+    }
+
+    @Benchmark
+    public MapCost parse() {
+        return MapCost.fromString(value);
+    }
+}
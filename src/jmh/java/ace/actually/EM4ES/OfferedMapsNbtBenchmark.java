@@ -0,0 +1,65 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtSizeTracker;
+import net.minecraft.util.Identifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading a merchant's offered-structure list, as done by the entity mixins on every
+ * chunk save and load. {@code roundTrip} stays in memory, {@code roundTripBytes} also goes through
+ * the binary NBT format like a region file write would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OfferedMapsNbtBenchmark {
+
+    // A fresh cartographer, a maxed one, and a trader on a heavily modded server
+    @Param({"5", "20", "200"})
+    public int offered;
+
+    private OfferedStructureSet structures;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkBootstrap.init();
+
+        structures = new OfferedStructureSet();
+        for (int i = 0; i < offered; i++) {
+            structures.add(Identifier.of(i % 2 == 0 ? "minecraft" : "bench", "structure_" + i));
+        }
+    }
+
+    @Benchmark
+    public OfferedStructureSet roundTrip() {
+        NbtCompound nbt = new NbtCompound();
+        OfferedMapsNbt.write(structures, nbt);
+
+        OfferedStructureSet loaded = new OfferedStructureSet();
+        OfferedMapsNbt.read(loaded, nbt);
+        return loaded;
+    }
+
+    @Benchmark
+    public OfferedStructureSet roundTripBytes() throws IOException {
+        NbtCompound nbt = new NbtCompound();
+        OfferedMapsNbt.write(structures, nbt);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtIo.write(nbt, new DataOutputStream(bytes));
+        NbtCompound read = NbtIo.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), NbtSizeTracker.ofUnlimitedBytes());
+
+        OfferedStructureSet loaded = new OfferedStructureSet();
+        OfferedMapsNbt.read(loaded, read);
+        return loaded;
+    }
+}
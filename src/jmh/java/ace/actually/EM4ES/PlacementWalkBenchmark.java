@@ -0,0 +1,80 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.gen.chunk.placement.RandomSpreadStructurePlacement;
+import net.minecraft.world.gen.chunk.placement.SpreadType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ring walk {@link StructureLocateEngine} does per random-spread grid, with vanilla's village and
+ * monument placements and a fixed world seed. Runs the engine's own {@code walkRandomSpread}, so ring order,
+ * pruning and handle polling are measured as shipped; the per-cell check is a stub, since anything that needs
+ * a chunk generator (biome checks, structure starts) needs a running server and is not covered here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlacementWalkBenchmark {
+
+    private static final long WORLD_SEED = 8675309L;
+
+    public enum Grid {
+        VILLAGE(34, 8, SpreadType.LINEAR, 10387312),
+        MONUMENT(32, 5, SpreadType.TRIANGULAR, 10387313);
+
+        final RandomSpreadStructurePlacement placement;
+
+        Grid(int spacing, int separation, SpreadType spreadType, int salt) {
+            this.placement = new RandomSpreadStructurePlacement(spacing, separation, spreadType, salt);
+        }
+    }
+
+    @Param({"VILLAGE", "MONUMENT"})
+    public Grid grid;
+
+    // Cartographer level 1 (500 blocks) and a wandering trader (2500 blocks)
+    @Param({"32", "157"})
+    public int radiusChunks;
+
+    // true: a search for one map whose first cell is a hit, so the rest of the walk is pruned
+    @Param({"false", "true"})
+    public boolean firstCellHits;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkBootstrap.init();
+    }
+
+    @Benchmark
+    public boolean walk(Blackhole blackhole) {
+        StructureLocateEngine.CellChecker checker = new StructureLocateEngine.CellChecker() {
+            private long bound = Long.MAX_VALUE;
+
+            @Override
+            public boolean isDone() {
+                return false;
+            }
+
+            @Override
+            public long bound() {
+                return bound;
+            }
+
+            @Override
+            public void check(ChunkPos start, long distanceSq) {
+                blackhole.consume(start);
+                if (firstCellHits && bound == Long.MAX_VALUE) bound = distanceSq;
+            }
+
+            @Override
+            public void endRing() {
+            }
+        };
+        return StructureLocateEngine.walkRandomSpread(grid.placement, WORLD_SEED, BlockPos.ORIGIN, radiusChunks,
+                SearchHandle.unstarted(), checker);
+    }
+}
@@ -0,0 +1,192 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.util.Identifier;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Picks which candidate structures a search should try, learning from earlier searches.
+ * <p>
+ * For every structure it keeps the hit rate per radius bucket (powers of two, in chunks) and a moving
+ * average of the time its placement walk costs. Candidates are drawn in random order weighted by
+ * expected hits per millisecond times their configured weight, so cheap, common structures come first
+ * without rare ones disappearing from the shop. The sample ends once the drawn candidates are expected
+ * to yield enough hits, capped by {@link EM4ESConfig#searchSampleSize}.
+ * <p>
+ * Only the best draws are kept, in a per-thread heap the size of the cap, and a candidate is only
+ * checked against the search's exclusions if it would make it into that heap.
+ */
+public final class AdaptiveSampler {
+
+    private static final int RADIUS_BUCKETS = 8;
+    // Unseen structures start at one hit in four tries and 5 ms, neither favoured nor written off
+    private static final double PRIOR_HITS = 1.0;
+    private static final double PRIOR_ATTEMPTS = 4.0;
+    private static final double PRIOR_MS = 5.0;
+    private static final double TIME_SMOOTHING = 0.2;
+    // Expected hits to aim for, relative to how many results were asked for
+    private static final double SAFETY_FACTOR = 1.5;
+    // Counts are halved past this so the statistics keep following world changes
+    private static final int MAX_ATTEMPTS = 1024;
+
+    private static final Map<Identifier, Stats> STATS = new ConcurrentHashMap<>();
+
+    private static final class Stats {
+        private final int[] attempts = new int[RADIUS_BUCKETS];
+        private final int[] hits = new int[RADIUS_BUCKETS];
+        private double meanMs = PRIOR_MS;
+
+        synchronized void record(int bucket, boolean hit) {
+            if (++attempts[bucket] > MAX_ATTEMPTS) {
+                attempts[bucket] /= 2;
+                hits[bucket] /= 2;
+            }
+            if (hit) hits[bucket]++;
+        }
+
+        synchronized void recordTime(double ms) {
+            meanMs += (ms - meanMs) * TIME_SMOOTHING;
+        }
+
+        synchronized double hitRate(int bucket) {
+            return (hits[bucket] + PRIOR_HITS) / (attempts[bucket] + PRIOR_ATTEMPTS);
+        }
+
+        synchronized double meanMs() {
+            return meanMs;
+        }
+    }
+
+    /**
+     * Per-thread max-heap of the best draws so far, keyed by draw order.
+     */
+    private static final class Heap {
+        private double[] keys = new double[0];
+        private int[] indices = new int[0];
+        private int size;
+
+        void reset(int capacity) {
+            if (keys.length < capacity) {
+                keys = new double[capacity];
+                indices = new int[capacity];
+            }
+            size = 0;
+        }
+
+        double maxKey() {
+            return keys[0];
+        }
+
+        void add(double key, int index) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] >= key) break;
+                keys[i] = keys[parent];
+                indices[i] = indices[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            indices[i] = index;
+        }
+
+        /**
+         * Removes the entry with the largest key and returns its index.
+         */
+        int poll() {
+            int top = indices[0];
+            double key = keys[--size];
+            int index = indices[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && keys[child + 1] > keys[child]) child++;
+                if (keys[child] <= key) break;
+                keys[i] = keys[child];
+                indices[i] = indices[child];
+                i = child;
+            }
+            keys[i] = key;
+            indices[i] = index;
+            return top;
+        }
+    }
+
+    private static final ThreadLocal<Heap> HEAP = ThreadLocal.withInitial(Heap::new);
+
+    private AdaptiveSampler() {}
+
+    /**
+     * Picks the candidates a search should try, best first, writing their sampler indices to {@code out}.
+     *
+     * @param excluded structures the search must leave out
+     * @param count    results the search needs
+     * @param limit    most candidates to pick, at least {@code count}
+     * @return how many were picked
+     */
+    public static int select(StructureSampler sampler, IntPredicate excluded, int radiusChunks, int count, int limit, int[] out) {
+        int bucket = bucket(radiusChunks);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Heap heap = HEAP.get();
+        heap.reset(limit);
+        if (limit <= 0) return 0;
+
+        // Weighted shuffle: ordering by -ln(u) / weight draws without replacement in proportion to weight
+        for (int i = 0; i < sampler.size(); i++) {
+            Stats stats = STATS.get(sampler.id(i));
+            double hitRate = stats != null ? stats.hitRate(bucket) : PRIOR_HITS / PRIOR_ATTEMPTS;
+            double meanMs = stats != null ? stats.meanMs() : PRIOR_MS;
+            double weight = sampler.weight(i) * hitRate / Math.max(0.05, meanMs);
+            double order = -Math.log(1.0 - random.nextDouble()) / weight;
+
+            if (heap.size == limit && order >= heap.maxKey()) continue;
+            if (excluded.test(i)) continue;
+            if (heap.size == limit) heap.poll();
+            heap.add(order, i);
+        }
+
+        int drawn = heap.size;
+        for (int i = drawn - 1; i >= 0; i--) {
+            out[i] = heap.poll();
+        }
+
+        double target = count * SAFETY_FACTOR;
+        double expected = 0;
+        int picked = 0;
+        while (picked < drawn && (picked < count || expected < target)) {
+            Stats stats = STATS.get(sampler.id(out[picked]));
+            expected += stats != null ? stats.hitRate(bucket) : PRIOR_HITS / PRIOR_ATTEMPTS;
+            picked++;
+        }
+        return picked;
+    }
+
+    /**
+     * Feeds the outcome of a finished locate pass back into the statistics.
+     */
+    public static void record(StructureLocateEngine.Result result, int radiusChunks) {
+        int bucket = bucket(radiusChunks);
+        for (Identifier id : result.found()) {
+            STATS.computeIfAbsent(id, key -> new Stats()).record(bucket, true);
+        }
+        for (Identifier id : result.absent()) {
+            STATS.computeIfAbsent(id, key -> new Stats()).record(bucket, false);
+        }
+        for (Map.Entry<Identifier, Long> entry : result.walkNanos().entrySet()) {
+            STATS.computeIfAbsent(entry.getKey(), key -> new Stats()).recordTime(entry.getValue() / 1_000_000.0);
+        }
+    }
+
+    public static void clear() {
+        STATS.clear();
+    }
+
+    private static int bucket(int radiusChunks) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, radiusChunks));
+        return Math.min(RADIUS_BUCKETS - 1, Math.max(0, bits - 3));
+    }
+}
@@ -0,0 +1,254 @@
+package ace.actually.EM4ES;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.component.type.NbtComponent;
+import net.minecraft.entity.player.PlayerInventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import net.minecraft.util.Hand;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Deciphering of unidentified maps, one structure search per map.
+ * <p>
+ * Decodes wait in a bounded line and at most {@link EM4ESConfig#decodeMaxConcurrent} of them search at
+ * once, so a player right-clicking a stack of paper cannot crowd traders out of the search pool. Each
+ * player may have {@link EM4ESConfig#decodeMaxPerPlayer} decodes waiting or running; further clicks are
+ * refused by {@link #admit} before the paper is used up. Waiting players see their place in line on the
+ * action bar.
+ * <p>
+ * The placeholder handed out for a decode carries a ticket under {@link #TICKET_KEY}, and the result
+ * replaces exactly that stack. A player who logs out keeps the placeholder and the decode is queued again
+ * when they next join, also after a restart. A decode whose placeholder is gone by the time it finishes
+ * is dropped, so a placeholder cannot be decoded twice.
+ * <p>
+ * Server thread only.
+ */
+public final class DecodeQueue {
+
+    public static final String TICKET_KEY = "EM4ES_DecodeTicket";
+
+    public enum Admission {
+        ACCEPTED(null),
+        PLAYER_LIMIT("You are already deciphering a map."),
+        QUEUE_FULL("The map is too faded to read right now. Try again shortly."),
+        NO_ROOM("Make room in your inventory to decipher this map.");
+
+        @Nullable
+        private final String message;
+
+        Admission(@Nullable String message) {
+            this.message = message;
+        }
+
+        public Text message() {
+            return Text.literal(message != null ? message : "").formatted(Formatting.GRAY);
+        }
+    }
+
+    private record Decode(UUID ticket, UUID playerId, long placedAt) {}
+
+    private static final Deque<Decode> WAITING = new ArrayDeque<>();
+    private static final Set<UUID> RUNNING = new HashSet<>();
+    private static final Object2IntOpenHashMap<UUID> PER_PLAYER = new Object2IntOpenHashMap<>();
+
+    private DecodeQueue() {}
+
+    /**
+     * Whether this player may start another decode right now.
+     *
+     * @param paper the unidentified map stack the player is using up
+     */
+    public static Admission admit(ServerPlayerEntity player, ItemStack paper) {
+        EM4ESConfig config = EM4ES.config();
+        if (PER_PLAYER.getInt(player.getUuid()) >= Math.max(1, config.decodeMaxPerPlayer)) return Admission.PLAYER_LIMIT;
+        if (WAITING.size() >= Math.max(1, config.decodeQueueSize)) return Admission.QUEUE_FULL;
+        // The result replaces the placeholder, which must not end up on the ground.
+        // Using up the last paper of the stack frees its slot for the placeholder.
+        if (paper.getCount() > 1 && player.getInventory().getEmptySlot() < 0) return Admission.NO_ROOM;
+        return Admission.ACCEPTED;
+    }
+
+    /**
+     * Gives the player a placeholder and queues its decode. Only after {@link #admit} accepted and the
+     * paper in {@code hand} was used up.
+     */
+    public static void start(ServerPlayerEntity player, Hand hand) {
+        UUID ticket = UUID.randomUUID();
+        ItemStack placeholder = placeholder(ticket);
+        // The last paper of the stack leaves its slot to the placeholder, the offhand included
+        if (player.getStackInHand(hand).isEmpty()) {
+            player.setStackInHand(hand, placeholder);
+        } else {
+            player.getInventory().insertStack(placeholder);
+        }
+        enqueue(player, ticket);
+    }
+
+    /**
+     * Queues the decodes of any placeholders the player still carries.
+     */
+    public static void onJoin(ServerPlayerEntity player) {
+        Set<UUID> queued = new HashSet<>(RUNNING);
+        for (Decode decode : WAITING) queued.add(decode.ticket());
+
+        PlayerInventory inventory = player.getInventory();
+        for (int i = 0; i < inventory.size(); i++) {
+            UUID ticket = ticketOf(inventory.getStack(i));
+            // Decodes the player already paid for skip the admission limits
+            if (ticket != null && queued.add(ticket)) enqueue(player, ticket);
+        }
+    }
+
+    /**
+     * Drops the player's waiting decodes. Running ones are cancelled with the rest of the player's searches.
+     */
+    public static void onDisconnect(UUID playerId) {
+        WAITING.removeIf(decode -> {
+            if (!decode.playerId().equals(playerId)) return false;
+            release(decode);
+            return true;
+        });
+    }
+
+    public static int waiting() {
+        return WAITING.size();
+    }
+
+    public static void clear() {
+        WAITING.clear();
+        RUNNING.clear();
+        PER_PLAYER.clear();
+    }
+
+    private static void enqueue(ServerPlayerEntity player, UUID ticket) {
+        WAITING.add(new Decode(ticket, player.getUuid(), System.nanoTime()));
+        PER_PLAYER.addTo(player.getUuid(), 1);
+        if (!pump(player.server)) showPositions(player.server);
+    }
+
+    /**
+     * Starts waiting decodes while there is room.
+     *
+     * @return whether any started (and the positions were updated)
+     */
+    private static boolean pump(MinecraftServer server) {
+        int limit = Math.max(1, EM4ES.config().decodeMaxConcurrent);
+        boolean started = false;
+        while (RUNNING.size() < limit && !WAITING.isEmpty()) {
+            Decode decode = WAITING.poll();
+            ServerPlayerEntity player = server.getPlayerManager().getPlayer(decode.playerId());
+            if (player == null) {
+                release(decode);
+                continue;
+            }
+            search(server, player, decode);
+            started = true;
+        }
+        if (started) showPositions(server);
+        return started;
+    }
+
+    private static void search(MinecraftServer server, ServerPlayerEntity player, Decode decode) {
+        RUNNING.add(decode.ticket());
+        player.sendMessage(Text.literal("Deciphering map...").formatted(Formatting.YELLOW), true);
+
+        // Cancelled if the player logs out; the placeholder stays and resumes on their next join
+        ServerWorld world = player.getServerWorld();
+        int radiusChunks = Math.max(1, EM4ES.config().decodeSearchRadius / 16);
+        SearchRequest request = SearchRequest.forEntity(player, Collections.emptySet(), radiusChunks, 1);
+        MapSearchPool.submit(server, request, SearchPriority.UNIDENTIFIED_DECODE).whenCompleteAsync((results, error) -> {
+            RUNNING.remove(decode.ticket());
+            release(decode);
+            if (error == null) SearchMetrics.timedApply((List<StructureSearchResult> found) -> deliver(server, world, decode, found)).accept(results);
+            pump(server);
+        }, MainThreadApplyQueue.EXECUTOR);
+    }
+
+    private static void deliver(MinecraftServer server, ServerWorld world, Decode decode, List<StructureSearchResult> results) {
+        ServerPlayerEntity player = server.getPlayerManager().getPlayer(decode.playerId());
+        if (player == null) return;
+
+        PlayerInventory inventory = player.getInventory();
+        int slot = -1;
+        for (int i = 0; i < inventory.size(); i++) {
+            if (decode.ticket().equals(ticketOf(inventory.getStack(i)))) {
+                slot = i;
+                break;
+            }
+        }
+        boolean onCursor = slot < 0 && decode.ticket().equals(ticketOf(player.currentScreenHandler.getCursorStack()));
+        if (slot < 0 && !onCursor) {
+            EM4ES.LOGGER.debug("Decode {} for {} finished without its placeholder, dropping it", decode.ticket(), player.getName().getString());
+            return;
+        }
+        SearchMetrics.PLACEHOLDER.record(System.nanoTime() - decode.placedAt());
+
+        ItemStack finalMap;
+        if (!results.isEmpty()) {
+            StructureSearchResult result = results.get(0);
+            finalMap = EM4ES.makeMapFromPos(world, result.pos(), result.id());
+            SearchMetrics.MAPS_DELIVERED.increment();
+            player.sendMessage(Text.literal("You found a map to " + EM4ES.formatName(result.id().getPath()) + "!").formatted(Formatting.GREEN), true);
+        } else {
+            finalMap = new ItemStack(Items.PAPER);
+            finalMap.set(DataComponentTypes.CUSTOM_NAME, Text.literal("The map crumbled to dust... (No structure found)").formatted(Formatting.GRAY));
+        }
+
+        if (onCursor) {
+            player.currentScreenHandler.setCursorStack(finalMap);
+        } else {
+            inventory.setStack(slot, finalMap);
+        }
+    }
+
+    private static void showPositions(MinecraftServer server) {
+        Set<UUID> shown = new HashSet<>();
+        int ahead = RUNNING.size();
+        for (Decode decode : WAITING) {
+            // A player's first waiting decode is the one they care about
+            if (shown.add(decode.playerId())) {
+                ServerPlayerEntity player = server.getPlayerManager().getPlayer(decode.playerId());
+                if (player != null) {
+                    player.sendMessage(Text.literal("Waiting to decipher map... (" + ahead + " ahead of you)").formatted(Formatting.YELLOW), true);
+                }
+            }
+            ahead++;
+        }
+    }
+
+    private static void release(Decode decode) {
+        if (PER_PLAYER.addTo(decode.playerId(), -1) <= 1) PER_PLAYER.removeInt(decode.playerId());
+    }
+
+    private static ItemStack placeholder(UUID ticket) {
+        ItemStack placeholder = new ItemStack(Items.FILLED_MAP);
+        placeholder.set(DataComponentTypes.CUSTOM_NAME, Text.literal("Deciphering Map...").formatted(Formatting.YELLOW));
+        NbtComponent.set(DataComponentTypes.CUSTOM_DATA, placeholder, nbt -> nbt.putUuid(TICKET_KEY, ticket));
+        return placeholder;
+    }
+
+    @Nullable
+    private static UUID ticketOf(ItemStack stack) {
+        if (!stack.isOf(Items.FILLED_MAP)) return null;
+        NbtComponent customData = stack.get(DataComponentTypes.CUSTOM_DATA);
+        if (customData == null || !customData.contains(TICKET_KEY)) return null;
+        NbtCompound nbt = customData.copyNbt();
+        return nbt.containsUuid(TICKET_KEY) ? nbt.getUuid(TICKET_KEY) : null;
+    }
+}
@@ -1,13 +1,15 @@
 package ace.actually.EM4ES;
 
-import com.google.common.collect.ImmutableList;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
 import net.fabricmc.fabric.api.loot.v3.LootTableEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.component.DataComponentTypes;
 import net.minecraft.component.type.MapColorComponent;
 import net.minecraft.component.type.MapDecorationsComponent;
-import net.minecraft.item.FilledMapItem;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.Items;
 import net.minecraft.item.map.MapDecorationType;
@@ -22,72 +24,53 @@ import net.minecraft.registry.Registry;
 import net.minecraft.registry.RegistryKeys;
 import net.minecraft.registry.entry.RegistryEntry;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraft.world.gen.structure.Structure;
 import org.apache.commons.lang3.text.WordUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileWriter;
-import java.nio.file.Files;
-import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 public class EM4ES implements ModInitializer {
 
     public static final String MOD_ID = "em4es";
     public static final Logger LOGGER = LogManager.getLogger(MOD_ID);
 
-    // --- Data Structures ---
-    private static volatile Map<Identifier, MapCost> STRUCTURE_COSTS = Collections.synchronizedMap(new HashMap<>());
-    public static volatile List<Identifier> VALID_STRUCTURE_IDS = ImmutableList.of();
-    private static MapCost defaultCost = MapCost.DEFAULT;
+    // --- Config ---
+    // Swapped as a whole by reloadConfig, never modified. Read it once per operation for consistent settings.
+    private static volatile EM4ESConfig CONFIG = EM4ESConfig.DEFAULTS;
 
-    // --- Thread Pool ---
-    public static final ExecutorService MAP_SEARCH_EXECUTOR = Executors.newSingleThreadExecutor();
-
-    // --- Configurable Settings ---
-    public static int SEARCH_SAMPLE_SIZE = 40;
-    public static long MAX_SEARCH_TIME_MS = 1500;
-
-    public static int WANDERING_TRADER_MAP_COUNT = 20;
-    public static int WANDERING_TRADER_SEARCH_RADIUS = 2500;
-
-    public static int CARTOGRAPHER_L1_MAP_COUNT = 5;
-    public static int CARTOGRAPHER_L1_SEARCH_RADIUS = 500;
-    public static int CARTOGRAPHER_L1_MAX_USES = 1;
-
-    public static int CARTOGRAPHER_L2_MAP_COUNT = 5;
-    public static int CARTOGRAPHER_L2_SEARCH_RADIUS = 750;
-    public static int CARTOGRAPHER_L2_MAX_USES = 1;
-
-    public static int CARTOGRAPHER_L3_MAP_COUNT = 5;
-    public static int CARTOGRAPHER_L3_SEARCH_RADIUS = 1000;
-    public static int CARTOGRAPHER_L3_MAX_USES = 1;
-
-    public static int CARTOGRAPHER_L4_MAP_COUNT = 5;
-    public static int CARTOGRAPHER_L4_SEARCH_RADIUS = 1500;
-    public static int CARTOGRAPHER_L4_MAX_USES = 1;
-
-    public static int CARTOGRAPHER_L5_MAP_COUNT = 3;
-    public static int CARTOGRAPHER_L5_SEARCH_RADIUS = 2500;
-    public static int CARTOGRAPHER_L5_MAX_USES = 1;
-
-    // Add this to your settings variables
-    public static float LOOT_CHANCE = 0.05f;
+    /**
+     * The current config snapshot. Lock-free, safe from any thread.
+     */
+    public static EM4ESConfig config() {
+        return CONFIG;
+    }
 
     @Override
     public void onInitialize() {
 
-        loadConfig();
+        try {
+            CONFIG = EM4ESConfig.loadSettings();
+            LOGGER.info("EM4ES Config loaded early (Loot Chance: " + CONFIG.lootChance + ")");
+        } catch (Exception e) {
+            LOGGER.error("Failed to load config early", e);
+        }
 
         UnidentifiedMapHandler.register();
+        EM4ESCommands.register();
 
         LootTableEvents.MODIFY.register((key, tableBuilder, source, registries) -> {
             // Check if it's a chest loot table (not mob drops, fishing, etc.)
@@ -101,7 +84,7 @@ public class EM4ES implements ModInitializer {
                 LootPool.Builder pool = LootPool.builder()
                         .with(ItemEntry.builder(Items.PAPER)
                                 // Set the chance (config value)
-                                .conditionally(net.minecraft.loot.condition.RandomChanceLootCondition.builder(LOOT_CHANCE))
+                                .conditionally(net.minecraft.loot.condition.RandomChanceLootCondition.builder(CONFIG.lootChance))
                                 // Give it a cool name
                                 .apply(SetNameLootFunction.builder(Text.literal("Unidentified Structure Map").formatted(Formatting.GOLD), SetNameLootFunction.Target.CUSTOM_NAME))
                                 // Apply the NBT so we know it's ours
@@ -113,14 +96,60 @@ public class EM4ES implements ModInitializer {
             }
         });
 
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            MapSearchPool.start();
+            MetricsExporter.start();
+        });
         ServerLifecycleEvents.SERVER_STARTED.register(this::onServerStarted);
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            MetricsExporter.stop();
+            MapSearchPool.shutdown();
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            StructureIndex.closeAll();
+            NegativeSearchCache.clear();
+            StructureFeasibility.clear();
+            StructureSampler.clear();
+            AdaptiveSampler.clear();
+            SearchProfile.clear();
+            MapStockPool.clear();
+            MainThreadApplyQueue.clear();
+            DecodeQueue.clear();
+            MapPreWarmer.clear();
+            MapPreviewRenderer.clear();
+            StructureIndexTable.clear();
+        });
+        // Merchants read their offered sets as soon as they load, so the palette has to be there first
+        ServerWorldEvents.LOAD.register((server, world) -> {
+            if (world.getRegistryKey() == World.OVERWORLD) StructureIndexTable.bind(world);
+        });
+        ServerTickEvents.START_SERVER_TICK.register(SearchMetrics::onTickStart);
+        // Apply finished searches first so their cost counts towards the measured tick
+        ServerTickEvents.END_SERVER_TICK.register(MainThreadApplyQueue::onTickEnd);
+        ServerTickEvents.END_SERVER_TICK.register(SearchMetrics::onTickEnd);
+        ServerTickEvents.END_SERVER_TICK.register(MapPreWarmer::onTickEnd);
+        ServerTickEvents.END_SERVER_TICK.register(MapPreviewRenderer::onTickEnd);
+        ServerEntityEvents.ENTITY_LOAD.register(MapPreWarmer::onEntityLoad);
+
+        // Drop searches nobody is waiting for any more. Players are only let go when they disconnect,
+        // since dying or changing dimension also unloads the player entity.
+        ServerEntityEvents.ENTITY_UNLOAD.register((entity, world) -> {
+            MapPreWarmer.onEntityUnload(entity, world);
+            if (!(entity instanceof ServerPlayerEntity)) MapSearchPool.cancelOwner(entity.getUuid());
+        });
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            DecodeQueue.onDisconnect(handler.getPlayer().getUuid());
+            MapSearchPool.cancelOwner(handler.getPlayer().getUuid());
+        });
+        // Maps still being deciphered when their player left pick up where they stopped
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> DecodeQueue.onJoin(handler.getPlayer()));
     }
 
     /**
      * Generates the config file if missing and loads Structure Costs (which require Registry access).
      */
     private void onServerStarted(MinecraftServer server) {
-        File configFile = new File("./config/EM4ES/EM4ES.properties");
+        File configFile = EM4ESConfig.FILE.toFile();
         try {
             if (!configFile.exists()) {
                 LOGGER.info("EM4ES Config not found. Creating default...");
@@ -128,11 +157,52 @@ public class EM4ES implements ModInitializer {
                 try (FileWriter writer = new FileWriter(configFile)) {
                     writer.write("# EM4ES Configuration\n\n");
                     writer.write("# This file configures the costs and behavior for explorer maps.\n");
-                    writer.write("# Restart the server to apply changes.\n\n");
+                    writer.write("# Run /em4es reload to apply changes (loot.chance needs a datapack /reload as well).\n\n");
 
                     writer.write("# --- Performance Settings ---\n");
+                    writer.write("# Most structure types one search tries. With search.adaptive the sampler usually needs fewer,\n");
+                    writer.write("# preferring structures that were cheap and often found in earlier searches.\n");
                     writer.write("search.sampleSize = 40\n");
-                    writer.write("search.maxTimeMs = 1500\n\n");
+                    writer.write("search.adaptive = true\n");
+                    writer.write("# Time one structure search may take before it gives up, in milliseconds.\n");
+                    writer.write("search.maxTimeMs = 1500\n");
+                    writer.write("# Skip a structure in a dimension for cooldownSeconds after it missed this many searches in a row.\n");
+                    writer.write("# See /em4es stats for what each structure costs.\n");
+                    writer.write("search.quarantine.enabled = false\n");
+                    writer.write("search.quarantine.misses = 25\n");
+                    writer.write("search.quarantine.cooldownSeconds = 3600\n");
+                    writer.write("# Main-thread time per tick for turning finished searches into map trades.\n");
+                    writer.write("search.applyBudgetMs = 5\n");
+                    writer.write("# Draw biome and terrain previews onto traded maps off the main thread (no chunks are loaded).\n");
+                    writer.write("map.preview = true\n");
+                    writer.write("# Maps of the same structure share one map file.\n");
+                    writer.write("map.dedupe = true\n");
+                    writer.write("# Write search metrics to config/EM4ES/metrics.prom in Prometheus text format every N seconds\n");
+                    writer.write("# (0 disables). The same numbers are always available over JMX as ace.actually.em4es:type=SearchMetrics.\n");
+                    writer.write("metrics.prometheusIntervalSeconds = 0\n");
+                    writer.write("# Worker threads for structure searches and how many jobs may wait for one.\n");
+                    writer.write("search.threads = " + EM4ESConfig.DEFAULT_SEARCH_THREADS + "\n");
+                    writer.write("search.queueSize = 256\n");
+                    writer.write("# Each lower priority class waits this much longer before it may overtake (restock > decode > open UI > background).\n");
+                    writer.write("search.agingMs = 2000\n");
+                    writer.write("# Share one running search between merchants asking for the same area and radius.\n");
+                    writer.write("search.coalesce = true\n");
+                    writer.write("# Search ahead for loaded cartographers and wandering traders after ticks shorter than maxTickMs,\n");
+                    writer.write("# so restocks and level-ups can take a ready result instead of waiting.\n");
+                    writer.write("search.prewarm.enabled = true\n");
+                    writer.write("search.prewarm.maxTickMs = 25\n");
+                    writer.write("search.prewarm.intervalTicks = 20\n");
+                    writer.write("search.prewarm.stockPerArea = 6\n");
+                    writer.write("# Results each map merchant keeps queued (and saved) for instant restocks (0 disables).\n");
+                    writer.write("search.prefetch.depth = 2\n");
+                    writer.write("# Remember located structures under the world save and reuse them instead of searching again.\n");
+                    writer.write("search.index.enabled = true\n");
+                    writer.write("# Guess unknown structure positions from placement rules and biomes instead of loading chunks.\n");
+                    writer.write("# Faster, but maps may point at structures that fail to generate. Predicted hits are never indexed.\n");
+                    writer.write("search.predictive = false\n");
+                    writer.write("# Remember structures a search proved absent near a village (0 entries disables).\n");
+                    writer.write("search.negativeCache.maxEntries = 4096\n");
+                    writer.write("search.negativeCache.ttlSeconds = 1800\n\n");
 
                     writer.write("# --- Wandering Trader Settings ---\n");
                     writer.write("trader.mapCount = 3\n");
@@ -158,6 +228,15 @@ public class EM4ES implements ModInitializer {
                     writer.write("# --- Structure Costs ---\n");
                     writer.write("default.cost = 1 minecraft:emerald\n\n");
 
+                    writer.write("# --- Unidentified Map Settings ---\n");
+                    writer.write("# Search radius in blocks for a deciphered map.\n");
+                    writer.write("decode.searchRadius = 3000\n");
+                    writer.write("# Maps one player may have queued or deciphering at once, how many decode at once\n");
+                    writer.write("# server-wide, and how many more may wait in line before further ones are refused.\n");
+                    writer.write("decode.maxPerPlayer = 1\n");
+                    writer.write("decode.maxConcurrent = 2\n");
+                    writer.write("decode.queueSize = 32\n\n");
+
                     writer.write("# --- Loot Table Settings ---\n");
                     writer.write("# Chance (0.0 to 1.0) to find an Unidentified Map in chests.\n");
                     writer.write("loot.chance = 0.05\n\n");
@@ -165,6 +244,10 @@ public class EM4ES implements ModInitializer {
                     writer.write("# --- Structure Costs ---\n");
                     writer.write("default.cost = 1 minecraft:emerald\n\n");
 
+                    writer.write("# --- Structure Weights ---\n");
+                    writer.write("# How often a structure comes up relative to the others (default 1, 0 = never offered).\n");
+                    writer.write("# weight.minecraft:mansion = 0.25\n\n");
+
                     Registry<Structure> structureRegistry = server.getRegistryManager().get(RegistryKeys.STRUCTURE);
                     for (Identifier id : structureRegistry.getIds()) {
                         writer.write(id.toString() + " = 1 minecraft:emerald\n");
@@ -172,105 +255,51 @@ public class EM4ES implements ModInitializer {
                 }
             }
 
-            // Load Costs (We re-read the file to get the costs + any user changes)
-            List<String> lines = Files.readAllLines(configFile.toPath());
-            Map<Identifier, MapCost> loadedCosts = new HashMap<>();
-            List<Identifier> validIds = new ArrayList<>();
-
-            for (String line : lines) {
-                line = line.trim();
-                if (line.startsWith("#") || line.isEmpty() || !line.contains("=")) continue;
+            // Load Costs (We re-read the file to get the costs + any user changes) and resolve the candidates
+            EM4ESConfig config = EM4ESConfig.load().withCandidates(server.getRegistryManager().get(RegistryKeys.STRUCTURE));
+            CONFIG = config;
 
-                String[] parts = line.split("=", 2);
-                String key = parts[0].trim();
-                String value = parts[1].trim();
+            LOGGER.info("EM4ES Costs Loaded. Structures found: " + config.structureIds.size());
 
-                if (key.equals("default.cost")) {
-                    defaultCost = MapCost.fromString(value);
-                    continue;
-                }
-
-                // We ignore settings keys (like trader.mapCount) here, we only want structure IDs
-                if (!key.contains(":")) continue;
-
-                Identifier structureId = Identifier.tryParse(key);
-                if (structureId != null) {
-                    loadedCosts.put(structureId, MapCost.fromString(value));
-                    validIds.add(structureId);
-                }
-            }
-
-            STRUCTURE_COSTS = Collections.synchronizedMap(loadedCosts);
-            VALID_STRUCTURE_IDS = Collections.unmodifiableList(validIds);
-
-            LOGGER.info("EM4ES Costs Loaded. Structures found: " + VALID_STRUCTURE_IDS.size());
+            StructureFeasibility.rebuild(server);
+            StructureSampler.clear();
 
         } catch (Exception e) {
             LOGGER.error("FATAL: Failed to handle config file!", e);
         }
     }
 
-    private void loadConfig() {
-        File configFile = new File("./config/EM4ES/EM4ES.properties");
-        if (!configFile.exists()) {
-            // Config doesn't exist yet, use defaults.
-            // The file will be created later in onServerStarted.
-            return;
-        }
-
-        try (FileInputStream fis = new FileInputStream(configFile)) {
-            Properties props = new Properties();
-            props.load(fis);
-
-            // Load Settings
-            SEARCH_SAMPLE_SIZE = Integer.parseInt(props.getProperty("search.sampleSize", "40"));
-            MAX_SEARCH_TIME_MS = Long.parseLong(props.getProperty("search.maxTimeMs", "1500"));
-
-            WANDERING_TRADER_MAP_COUNT = Integer.parseInt(props.getProperty("trader.mapCount", "20"));
-            WANDERING_TRADER_SEARCH_RADIUS = Integer.parseInt(props.getProperty("trader.searchRadius", "2500"));
-
-            CARTOGRAPHER_L1_MAP_COUNT = Integer.parseInt(props.getProperty("cartographer.level1.mapCount", "5"));
-            CARTOGRAPHER_L1_SEARCH_RADIUS = Integer.parseInt(props.getProperty("cartographer.level1.searchRadius", "500"));
-            CARTOGRAPHER_L1_MAX_USES = Integer.parseInt(props.getProperty("cartographer.level1.maxUses", "1"));
-
-            CARTOGRAPHER_L2_MAP_COUNT = Integer.parseInt(props.getProperty("cartographer.level2.mapCount", "5"));
-            CARTOGRAPHER_L2_SEARCH_RADIUS = Integer.parseInt(props.getProperty("cartographer.level2.searchRadius", "750"));
-            CARTOGRAPHER_L2_MAX_USES = Integer.parseInt(props.getProperty("cartographer.level2.maxUses", "1"));
-
-            CARTOGRAPHER_L3_MAP_COUNT = Integer.parseInt(props.getProperty("cartographer.level3.mapCount", "5"));
-            CARTOGRAPHER_L3_SEARCH_RADIUS = Integer.parseInt(props.getProperty("cartographer.level3.searchRadius", "1000"));
-            CARTOGRAPHER_L3_MAX_USES = Integer.parseInt(props.getProperty("cartographer.level3.maxUses", "1"));
-
-            CARTOGRAPHER_L4_MAP_COUNT = Integer.parseInt(props.getProperty("cartographer.level4.mapCount", "5"));
-            CARTOGRAPHER_L4_SEARCH_RADIUS = Integer.parseInt(props.getProperty("cartographer.level4.searchRadius", "1500"));
-            CARTOGRAPHER_L4_MAX_USES = Integer.parseInt(props.getProperty("cartographer.level4.maxUses", "1"));
-
-            CARTOGRAPHER_L5_MAP_COUNT = Integer.parseInt(props.getProperty("cartographer.level5.mapCount", "3"));
-            CARTOGRAPHER_L5_SEARCH_RADIUS = Integer.parseInt(props.getProperty("cartographer.level5.searchRadius", "2500"));
-            CARTOGRAPHER_L5_MAX_USES = Integer.parseInt(props.getProperty("cartographer.level5.maxUses", "1"));
-
-            LOOT_CHANCE = Float.parseFloat(props.getProperty("loot.chance", "0.05"));
-
-            LOGGER.info("EM4ES Config loaded early (Loot Chance: " + LOOT_CHANCE + ")");
-
-        } catch (Exception e) {
-            LOGGER.error("Failed to load config early", e);
-        }
+    /**
+     * Re-reads the config file on an IO worker and publishes the result on the server thread in one swap.
+     * Searches already running finish with the snapshot they started with. If the file cannot be read or
+     * parsed the returned future fails and the current config stays.
+     */
+    public static CompletableFuture<EM4ESConfig> reloadConfig(MinecraftServer server) {
+        Registry<Structure> structureRegistry = server.getRegistryManager().get(RegistryKeys.STRUCTURE);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return EM4ESConfig.load().withCandidates(structureRegistry);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.getIoWorkerExecutor()).thenApplyAsync(config -> {
+            CONFIG = config;
+            MapSearchPool.resize(config.searchThreads);
+            LOGGER.info("EM4ES Config reloaded. Structures found: " + config.structureIds.size());
+            return config;
+        }, server);
     }
 
 
     // --- Helper Methods ---
 
     public static MapCost getCostForStructure(Identifier structureId) {
-        return STRUCTURE_COSTS.getOrDefault(structureId, defaultCost);
+        return CONFIG.costFor(structureId);
     }
 
     public static ItemStack makeMapFromPos(net.minecraft.server.world.ServerWorld world, BlockPos pos, Identifier structureId) {
-        ItemStack mapStack = FilledMapItem.createMap(world, pos.getX(), pos.getZ(), (byte) 2, true, true);
-        FilledMapItem.fillExplorationMap(world, mapStack);
-        addDecorationsAndColor(mapStack, pos, structureId.toString(), structureId.hashCode());
-        mapStack.set(DataComponentTypes.CUSTOM_NAME, Text.literal(formatName(structureId.getPath()) + " Map"));
-        return mapStack;
+        // Filled in by LazyExplorerMap on the player's next inventory tick
+        return LazyExplorerMap.create(world, pos, structureId, true);
     }
 
     public static void addDecorationsAndColor(ItemStack stack, BlockPos pos, String key, int seed) {
@@ -0,0 +1,88 @@
+package ace.actually.EM4ES;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.minecraft.command.argument.DimensionArgumentType;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.List;
+
+/**
+ * Admin commands under {@code /em4es}.
+ */
+public final class EM4ESCommands {
+
+    private static final int DEFAULT_ROWS = 15;
+
+    private EM4ESCommands() {}
+
+    public static void register() {
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> registerCommands(dispatcher));
+    }
+
+    private static void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(CommandManager.literal("em4es")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(CommandManager.literal("stats")
+                        .executes(ctx -> showStats(ctx, ctx.getSource().getWorld(), DEFAULT_ROWS))
+                        .then(CommandManager.argument("dimension", DimensionArgumentType.dimension())
+                                .executes(ctx -> showStats(ctx, DimensionArgumentType.getDimensionArgument(ctx, "dimension"), DEFAULT_ROWS))
+                                .then(CommandManager.argument("rows", IntegerArgumentType.integer(1, 200))
+                                        .executes(ctx -> showStats(ctx, DimensionArgumentType.getDimensionArgument(ctx, "dimension"),
+                                                IntegerArgumentType.getInteger(ctx, "rows"))))))
+                        .then(CommandManager.literal("reset").executes(EM4ESCommands::resetStats)))
+                .then(CommandManager.literal("reload").executes(EM4ESCommands::reload)));
+    }
+
+    private static int showStats(CommandContext<ServerCommandSource> ctx, ServerWorld world, int rows) {
+        List<SearchProfile.Entry> entries = SearchProfile.snapshot(world.getRegistryKey());
+        ServerCommandSource source = ctx.getSource();
+
+        if (entries.isEmpty()) {
+            source.sendFeedback(() -> Text.literal("No searches recorded in " + world.getRegistryKey().getValue() + " yet.").formatted(Formatting.GRAY), false);
+            return 0;
+        }
+
+        source.sendFeedback(() -> Text.literal("EM4ES search cost in " + world.getRegistryKey().getValue()
+                + " (attempts, hits, p50 / p99 locate ms, total ms):").formatted(Formatting.GOLD), false);
+        for (SearchProfile.Entry entry : entries.subList(0, Math.min(rows, entries.size()))) {
+            String line = String.format("%s  %d, %d, %.1f / %.1f, %.0f%s", entry.structure(), entry.attempts(), entry.hits(),
+                    entry.p50Ms(), entry.p99Ms(), entry.totalMs(), entry.quarantined() ? "  [quarantined]" : "");
+            Formatting color = entry.quarantined() ? Formatting.RED : entry.hits() == 0 ? Formatting.YELLOW : Formatting.WHITE;
+            source.sendFeedback(() -> Text.literal(line).formatted(color), false);
+        }
+        if (entries.size() > rows) {
+            source.sendFeedback(() -> Text.literal("... and " + (entries.size() - rows) + " more").formatted(Formatting.GRAY), false);
+        }
+        return entries.size();
+    }
+
+    private static int resetStats(CommandContext<ServerCommandSource> ctx) {
+        SearchProfile.clear();
+        ctx.getSource().sendFeedback(() -> Text.literal("EM4ES search statistics and quarantines cleared."), true);
+        return 1;
+    }
+
+    /**
+     * Re-reads the config file off the server thread. Feedback arrives once the new snapshot is live.
+     */
+    private static int reload(CommandContext<ServerCommandSource> ctx) {
+        ServerCommandSource source = ctx.getSource();
+        EM4ES.reloadConfig(source.getServer()).whenCompleteAsync((config, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                source.sendError(Text.literal("EM4ES config not reloaded, keeping the old one: " + cause.getMessage()));
+            } else {
+                source.sendFeedback(() -> Text.literal("EM4ES config reloaded (" + config.structureIds.size() + " structure costs, "
+                        + config.searchThreads + " search threads)."), true);
+            }
+        }, source.getServer());
+        return 1;
+    }
+}
@@ -0,0 +1,287 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.gen.structure.Structure;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * One immutable reading of {@code EM4ES.properties}.
+ * <p>
+ * The file is read once into a snapshot that holds the settings, the per-level cartographer tables and the
+ * structure cost table. {@link EM4ES#config()} hands out the current snapshot and {@code /em4es reload}
+ * swaps in a new one, so a search or trade reads one consistent config without taking a lock.
+ * <p>
+ * {@link #candidates} needs the structure registry and is filled in by {@link #withCandidates} once the
+ * server has started; before that it is empty.
+ */
+public final class EM4ESConfig {
+
+    public static final Path FILE = Path.of("./config/EM4ES/EM4ES.properties");
+    public static final int DEFAULT_SEARCH_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final String WEIGHT_PREFIX = "weight.";
+    private static final int LEVELS = 5;
+    private static final int[] DEFAULT_MAP_COUNTS = {5, 5, 5, 5, 3};
+    private static final int[] DEFAULT_RADII = {500, 750, 1000, 1500, 2500};
+
+    public static final EM4ESConfig DEFAULTS = new EM4ESConfig(new Properties(), CostTable.EMPTY, List.of());
+
+    // --- Search ---
+    public final int searchSampleSize;
+    public final long maxSearchTimeMs;
+    public final boolean structureIndexEnabled;
+    public final boolean predictiveLocate;
+    public final int negativeCacheMaxEntries;
+    public final long negativeCacheTtlSeconds;
+    public final int searchThreads;
+    public final int searchQueueSize;
+    public final long searchAgingMs;
+    public final boolean searchCoalesce;
+    public final boolean adaptiveSampling;
+    public final boolean quarantineEnabled;
+    public final int quarantineMisses;
+    public final long quarantineCooldownSeconds;
+    public final boolean prewarmEnabled;
+    public final long prewarmMaxTickMs;
+    public final int prewarmIntervalTicks;
+    public final int prewarmStockPerArea;
+    public final int prefetchDepth;
+    public final long applyBudgetMs;
+    public final int metricsFileIntervalSeconds;
+
+    // --- Unidentified map decoding ---
+    public final int decodeSearchRadius;
+    public final int decodeMaxPerPlayer;
+    public final int decodeMaxConcurrent;
+    public final int decodeQueueSize;
+
+    // --- Maps ---
+    public final boolean mapPreviewEnabled;
+    public final boolean mapDedupeEnabled;
+
+    // --- Merchants ---
+    public final int wanderingTraderMapCount;
+    public final int wanderingTraderSearchRadius;
+    private final int[] cartographerMapCount = new int[LEVELS];
+    private final int[] cartographerSearchRadius = new int[LEVELS];
+    private final int[] cartographerMaxUses = new int[LEVELS];
+
+    public final float lootChance;
+
+    // --- Structures ---
+    public final MapCost defaultCost;
+    /** Cost per structure, as listed in the file. */
+    public final Map<Identifier, MapCost> costs;
+    /** Sampling weight per structure ({@code weight.<id>} keys). Unlisted ones weigh 1, 0 never comes up. */
+    public final Map<Identifier, Double> weights;
+    /** Structures listed in the file, in file order. */
+    public final List<Identifier> structureIds;
+    /** Every structure in the registry, the pool searches sample from. Unlisted ones sell for {@link #defaultCost}. */
+    public final List<RegistryKey<Structure>> candidates;
+
+    private EM4ESConfig(Properties props, CostTable costTable, List<RegistryKey<Structure>> candidates) {
+        searchSampleSize = Integer.parseInt(props.getProperty("search.sampleSize", "40"));
+        maxSearchTimeMs = Long.parseLong(props.getProperty("search.maxTimeMs", "1500"));
+        searchThreads = Integer.parseInt(props.getProperty("search.threads", String.valueOf(DEFAULT_SEARCH_THREADS)));
+        searchQueueSize = Integer.parseInt(props.getProperty("search.queueSize", "256"));
+        searchAgingMs = Long.parseLong(props.getProperty("search.agingMs", "2000"));
+        searchCoalesce = Boolean.parseBoolean(props.getProperty("search.coalesce", "true"));
+        adaptiveSampling = Boolean.parseBoolean(props.getProperty("search.adaptive", "true"));
+        quarantineEnabled = Boolean.parseBoolean(props.getProperty("search.quarantine.enabled", "false"));
+        quarantineMisses = Integer.parseInt(props.getProperty("search.quarantine.misses", "25"));
+        quarantineCooldownSeconds = Long.parseLong(props.getProperty("search.quarantine.cooldownSeconds", "3600"));
+        prewarmEnabled = Boolean.parseBoolean(props.getProperty("search.prewarm.enabled", "true"));
+        prewarmMaxTickMs = Long.parseLong(props.getProperty("search.prewarm.maxTickMs", "25"));
+        prewarmIntervalTicks = Integer.parseInt(props.getProperty("search.prewarm.intervalTicks", "20"));
+        prewarmStockPerArea = Integer.parseInt(props.getProperty("search.prewarm.stockPerArea", "6"));
+        prefetchDepth = Integer.parseInt(props.getProperty("search.prefetch.depth", "2"));
+        metricsFileIntervalSeconds = Integer.parseInt(props.getProperty("metrics.prometheusIntervalSeconds", "0"));
+        applyBudgetMs = Long.parseLong(props.getProperty("search.applyBudgetMs", "5"));
+        structureIndexEnabled = Boolean.parseBoolean(props.getProperty("search.index.enabled", "true"));
+        predictiveLocate = Boolean.parseBoolean(props.getProperty("search.predictive", "false"));
+        negativeCacheMaxEntries = Integer.parseInt(props.getProperty("search.negativeCache.maxEntries", "4096"));
+        negativeCacheTtlSeconds = Long.parseLong(props.getProperty("search.negativeCache.ttlSeconds", "1800"));
+
+        decodeSearchRadius = Integer.parseInt(props.getProperty("decode.searchRadius", "3000"));
+        decodeMaxPerPlayer = Integer.parseInt(props.getProperty("decode.maxPerPlayer", "1"));
+        decodeMaxConcurrent = Integer.parseInt(props.getProperty("decode.maxConcurrent", "2"));
+        decodeQueueSize = Integer.parseInt(props.getProperty("decode.queueSize", "32"));
+
+        mapPreviewEnabled = Boolean.parseBoolean(props.getProperty("map.preview", "true"));
+        mapDedupeEnabled = Boolean.parseBoolean(props.getProperty("map.dedupe", "true"));
+
+        wanderingTraderMapCount = Integer.parseInt(props.getProperty("trader.mapCount", "20"));
+        wanderingTraderSearchRadius = Integer.parseInt(props.getProperty("trader.searchRadius", "2500"));
+        for (int level = 1; level <= LEVELS; level++) {
+            String prefix = "cartographer.level" + level + ".";
+            cartographerMapCount[level - 1] = Integer.parseInt(props.getProperty(prefix + "mapCount", String.valueOf(DEFAULT_MAP_COUNTS[level - 1])));
+            cartographerSearchRadius[level - 1] = Integer.parseInt(props.getProperty(prefix + "searchRadius", String.valueOf(DEFAULT_RADII[level - 1])));
+            cartographerMaxUses[level - 1] = Integer.parseInt(props.getProperty(prefix + "maxUses", "1"));
+        }
+
+        lootChance = Float.parseFloat(props.getProperty("loot.chance", "0.05"));
+
+        defaultCost = costTable.defaultCost();
+        costs = Map.copyOf(costTable.costs());
+        weights = Map.copyOf(costTable.weights());
+        structureIds = List.copyOf(costTable.ids());
+        this.candidates = List.copyOf(candidates);
+    }
+
+    /**
+     * Reads the config file, or returns the defaults if there is none yet.
+     *
+     * @throws IOException           if the file exists but cannot be read
+     * @throws NumberFormatException if a setting is not a number; nothing is applied in that case
+     */
+    public static EM4ESConfig load() throws IOException {
+        if (!Files.exists(FILE)) return DEFAULTS;
+        return parse(Files.readAllLines(FILE));
+    }
+
+    /**
+     * Like {@link #load} but without structure costs, for mod init: items from other mods may not be
+     * registered yet, so costs are only read once the server starts.
+     */
+    public static EM4ESConfig loadSettings() throws IOException {
+        if (!Files.exists(FILE)) return DEFAULTS;
+        return new EM4ESConfig(readProperties(Files.readAllLines(FILE)), CostTable.EMPTY, List.of());
+    }
+
+    public static EM4ESConfig parse(List<String> lines) throws IOException {
+        return new EM4ESConfig(readProperties(lines), parseCostLines(lines), List.of());
+    }
+
+    private static Properties readProperties(List<String> lines) throws IOException {
+        Properties props = new Properties();
+        props.load(new StringReader(String.join("\n", lines)));
+        return props;
+    }
+
+    /**
+     * This snapshot with {@link #candidates} taken from the structure registry.
+     */
+    public EM4ESConfig withCandidates(Registry<Structure> registry) {
+        List<RegistryKey<Structure>> keys = new ArrayList<>();
+        for (Identifier id : registry.getIds()) {
+            registry.getKey(registry.get(id)).ifPresent(keys::add);
+        }
+        return new EM4ESConfig(this, keys);
+    }
+
+    private EM4ESConfig(EM4ESConfig other, List<RegistryKey<Structure>> candidates) {
+        searchSampleSize = other.searchSampleSize;
+        maxSearchTimeMs = other.maxSearchTimeMs;
+        structureIndexEnabled = other.structureIndexEnabled;
+        predictiveLocate = other.predictiveLocate;
+        negativeCacheMaxEntries = other.negativeCacheMaxEntries;
+        negativeCacheTtlSeconds = other.negativeCacheTtlSeconds;
+        searchThreads = other.searchThreads;
+        searchQueueSize = other.searchQueueSize;
+        searchAgingMs = other.searchAgingMs;
+        searchCoalesce = other.searchCoalesce;
+        adaptiveSampling = other.adaptiveSampling;
+        quarantineEnabled = other.quarantineEnabled;
+        quarantineMisses = other.quarantineMisses;
+        quarantineCooldownSeconds = other.quarantineCooldownSeconds;
+        prewarmEnabled = other.prewarmEnabled;
+        prewarmMaxTickMs = other.prewarmMaxTickMs;
+        prewarmIntervalTicks = other.prewarmIntervalTicks;
+        prewarmStockPerArea = other.prewarmStockPerArea;
+        prefetchDepth = other.prefetchDepth;
+        applyBudgetMs = other.applyBudgetMs;
+        metricsFileIntervalSeconds = other.metricsFileIntervalSeconds;
+        decodeSearchRadius = other.decodeSearchRadius;
+        decodeMaxPerPlayer = other.decodeMaxPerPlayer;
+        decodeMaxConcurrent = other.decodeMaxConcurrent;
+        decodeQueueSize = other.decodeQueueSize;
+        mapPreviewEnabled = other.mapPreviewEnabled;
+        mapDedupeEnabled = other.mapDedupeEnabled;
+        wanderingTraderMapCount = other.wanderingTraderMapCount;
+        wanderingTraderSearchRadius = other.wanderingTraderSearchRadius;
+        System.arraycopy(other.cartographerMapCount, 0, cartographerMapCount, 0, LEVELS);
+        System.arraycopy(other.cartographerSearchRadius, 0, cartographerSearchRadius, 0, LEVELS);
+        System.arraycopy(other.cartographerMaxUses, 0, cartographerMaxUses, 0, LEVELS);
+        lootChance = other.lootChance;
+        defaultCost = other.defaultCost;
+        costs = other.costs;
+        weights = other.weights;
+        structureIds = other.structureIds;
+        this.candidates = List.copyOf(candidates);
+    }
+
+    public MapCost costFor(Identifier structureId) {
+        return costs.getOrDefault(structureId, defaultCost);
+    }
+
+    public double weightFor(Identifier structureId) {
+        return weights.getOrDefault(structureId, 1.0);
+    }
+
+    public int mapCountForLevel(int level) {
+        return level >= 1 && level <= LEVELS ? cartographerMapCount[level - 1] : 0;
+    }
+
+    public int searchRadiusForLevel(int level) {
+        return level >= 1 && level <= LEVELS ? cartographerSearchRadius[level - 1] : 500;
+    }
+
+    public int maxUsesForLevel(int level) {
+        return level >= 1 && level <= LEVELS ? cartographerMaxUses[level - 1] : 1;
+    }
+
+    /**
+     * Structure costs and weights parsed from the config file lines, in file order.
+     */
+    record CostTable(MapCost defaultCost, Map<Identifier, MapCost> costs, Map<Identifier, Double> weights, List<Identifier> ids) {
+        static final CostTable EMPTY = new CostTable(MapCost.DEFAULT, Map.of(), Map.of(), List.of());
+    }
+
+    static CostTable parseCostLines(List<String> lines) {
+        MapCost parsedDefault = MapCost.DEFAULT;
+        Map<Identifier, MapCost> loadedCosts = new HashMap<>();
+        Map<Identifier, Double> loadedWeights = new HashMap<>();
+        List<Identifier> validIds = new ArrayList<>();
+
+        for (String line : lines) {
+            line = line.trim();
+            if (line.startsWith("#") || line.isEmpty() || !line.contains("=")) continue;
+
+            String[] parts = line.split("=", 2);
+            String key = parts[0].trim();
+            String value = parts[1].trim();
+
+            if (key.equals("default.cost")) {
+                parsedDefault = MapCost.fromString(value);
+                continue;
+            }
+
+            // Checked before the ':' test below, "weight.minecraft:x" would parse as an identifier
+            if (key.startsWith(WEIGHT_PREFIX)) {
+                Identifier structureId = Identifier.tryParse(key.substring(WEIGHT_PREFIX.length()));
+                if (structureId != null) loadedWeights.put(structureId, Math.max(0.0, Double.parseDouble(value)));
+                continue;
+            }
+
+            // We ignore settings keys (like trader.mapCount) here, we only want structure IDs
+            if (!key.contains(":")) continue;
+
+            Identifier structureId = Identifier.tryParse(key);
+            if (structureId != null) {
+                loadedCosts.put(structureId, MapCost.fromString(value));
+                validIds.add(structureId);
+            }
+        }
+        return new CostTable(parsedDefault, loadedCosts, loadedWeights, validIds);
+    }
+}
@@ -0,0 +1,94 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.component.type.MapIdComponent;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.registry.RegistryWrapper;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.PersistentState;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every map ID EM4ES has allocated, saved as {@code data/em4es_maps.dat} next to the maps themselves.
+ * <p>
+ * Maps of the same structure at the same position and scale share one ID ({@link #find}), so ten traders
+ * pointing at the same monument cost one {@code map_N.dat}.
+ * <p>
+ * Map files are never deleted: every ID here belongs to a map a player owned, and a map kept in a chest
+ * is never looked up, so nothing the server sees tells an unused map from a stored one.
+ */
+public final class ExplorerMapRegistry extends PersistentState {
+
+    private static final String NAME = "em4es_maps";
+
+    private static final PersistentState.Type<ExplorerMapRegistry> TYPE =
+            new PersistentState.Type<>(ExplorerMapRegistry::new, ExplorerMapRegistry::fromNbt, null);
+
+    private record MapKey(Identifier dimension, long pos, byte scale, Identifier structure) {}
+
+    private final Map<MapKey, Integer> byKey = new HashMap<>();
+    private final Map<Integer, MapKey> keyOf = new HashMap<>();
+
+    public static ExplorerMapRegistry get(MinecraftServer server) {
+        return server.getOverworld().getPersistentStateManager().getOrCreate(TYPE, NAME);
+    }
+
+    /**
+     * The ID already allocated for this map, if there is one and its map state still exists.
+     */
+    @Nullable
+    public MapIdComponent find(ServerWorld world, Identifier structure, long pos, byte scale) {
+        Integer id = byKey.get(new MapKey(world.getRegistryKey().getValue(), pos, scale, structure));
+        if (id == null) return null;
+        MapIdComponent mapId = new MapIdComponent(id);
+        return world.getMapState(mapId) != null ? mapId : null;
+    }
+
+    public void register(ServerWorld world, Identifier structure, long pos, byte scale, MapIdComponent mapId) {
+        MapKey key = new MapKey(world.getRegistryKey().getValue(), pos, scale, structure);
+        Integer previous = byKey.put(key, mapId.id());
+        if (previous != null) keyOf.remove(previous);
+        keyOf.put(mapId.id(), key);
+        markDirty();
+    }
+
+    @Override
+    public NbtCompound writeNbt(NbtCompound nbt, RegistryWrapper.WrapperLookup registries) {
+        NbtList maps = new NbtList();
+        for (Map.Entry<Integer, MapKey> entry : keyOf.entrySet()) {
+            MapKey key = entry.getValue();
+            NbtCompound map = new NbtCompound();
+            map.putInt("Id", entry.getKey());
+            map.putString("Dimension", key.dimension().toString());
+            map.putLong("Pos", key.pos());
+            map.putByte("Scale", key.scale());
+            map.putString("Structure", key.structure().toString());
+            maps.add(map);
+        }
+        nbt.put("Maps", maps);
+        return nbt;
+    }
+
+    private static ExplorerMapRegistry fromNbt(NbtCompound nbt, RegistryWrapper.WrapperLookup registries) {
+        ExplorerMapRegistry registry = new ExplorerMapRegistry();
+        NbtList maps = nbt.getList("Maps", NbtElement.COMPOUND_TYPE);
+        for (NbtElement element : maps) {
+            NbtCompound map = (NbtCompound) element;
+            Identifier dimension = Identifier.tryParse(map.getString("Dimension"));
+            Identifier structure = Identifier.tryParse(map.getString("Structure"));
+            if (dimension == null || structure == null) continue;
+
+            int id = map.getInt("Id");
+            MapKey key = new MapKey(dimension, map.getLong("Pos"), map.getByte("Scale"), structure);
+            registry.byKey.put(key, id);
+            registry.keyOf.put(id, key);
+        }
+        return registry;
+    }
+}
@@ -1,36 +1,27 @@
 package ace.actually.EM4ES;
 
-import com.mojang.datafixers.util.Pair;
-import net.minecraft.component.DataComponentTypes;
 import net.minecraft.entity.Entity;
-import net.minecraft.item.FilledMapItem;
 import net.minecraft.item.ItemStack;
-import net.minecraft.registry.Registry;
 import net.minecraft.registry.RegistryKey;
-import net.minecraft.registry.RegistryKeys;
 import net.minecraft.registry.entry.RegistryEntry;
-import net.minecraft.registry.entry.RegistryEntryList;
 import net.minecraft.server.world.ServerWorld;
-import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.random.Random;
 import net.minecraft.village.TradeOffer;
 import net.minecraft.village.TradeOffers;
 import net.minecraft.village.TradedItem;
-import net.minecraft.world.gen.chunk.ChunkGenerator;
+import net.minecraft.world.World;
 import net.minecraft.world.gen.structure.Structure;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.IntPredicate;
 
 public class ExplorerMapTradeFactory implements TradeOffers.Factory {
     private final int maxUses;
     private final int searchRadiusInChunks;
 
-    private static List<RegistryKey<Structure>> CACHED_STRUCTURE_KEYS = null;
-
     public ExplorerMapTradeFactory(int maxUses, int searchRadiusInChunks) {
         this.maxUses = maxUses;
         this.searchRadiusInChunks = searchRadiusInChunks;
@@ -50,63 +41,123 @@ public class ExplorerMapTradeFactory implements TradeOffers.Factory {
     // --- ASYNC SAFE: Find the location ---
     @Nullable
     public static StructureSearchResult findStructure(ServerWorld world, BlockPos origin, Set<Identifier> skipIds, int radiusChunks) {
-        Registry<Structure> structureRegistry = world.getRegistryManager().get(RegistryKeys.STRUCTURE);
-        if (CACHED_STRUCTURE_KEYS == null) initializeCache(structureRegistry);
-
-        ChunkGenerator chunkGenerator = world.getChunkManager().getChunkGenerator();
-        int searchRadiusBlocks = radiusChunks * 16;
-
-        List<RegistryKey<Structure>> candidates = CACHED_STRUCTURE_KEYS.stream()
-                .filter(key -> !skipIds.contains(key.getValue()))
-                .collect(Collectors.toList());
-
-        if (candidates.isEmpty()) return null;
-
-        Collections.shuffle(candidates);
-
-        long startTime = System.currentTimeMillis();
-        int checkedCount = 0;
+        List<StructureSearchResult> results = findStructures(world, origin, skipIds, radiusChunks, 1);
+        return results.isEmpty() ? null : results.get(0);
+    }
 
-        for (RegistryKey<Structure> key : candidates) {
-            if (System.currentTimeMillis() - startTime > EM4ES.MAX_SEARCH_TIME_MS) break;
-            if (checkedCount >= EM4ES.SEARCH_SAMPLE_SIZE) break;
-            checkedCount++;
+    /**
+     * Finds up to {@code count} structures with distinct IDs in one pass over the search area.
+     * Used by the bulk fills so a trader asking for 20 maps walks the placement grids once instead of 20 times.
+     */
+    public static List<StructureSearchResult> findStructures(ServerWorld world, BlockPos origin, Set<Identifier> skipIds, int radiusChunks, int count) {
+        return findStructures(world, origin, skipIds, radiusChunks, count, SearchHandle.withBudget(EM4ES.config().maxSearchTimeMs));
+    }
 
-            try {
-                Optional<RegistryEntry.Reference<Structure>> entryOpt = structureRegistry.getEntry(key);
-                if (entryOpt.isEmpty()) continue;
+    /**
+     * As above, stopping early once {@code handle} is cancelled or runs out of time.
+     */
+    public static List<StructureSearchResult> findStructures(ServerWorld world, BlockPos origin, Set<Identifier> skipIds, int radiusChunks, int count,
+                                                             SearchHandle handle) {
+        // One config snapshot for the whole search, even if /em4es reload swaps it meanwhile
+        EM4ESConfig config = EM4ES.config();
+        // Only structures that can actually generate in this dimension, with their weights
+        StructureSampler sampler = StructureSampler.forWorld(world, config);
+        if (sampler.size() == 0) return List.of();
+        RegistryKey<World> dimension = world.getRegistryKey();
+
+        // 1. Draw the candidates first, so weights and the learned ordering apply to indexed structures too.
+        // Structures a recent search already proved absent here do not use up the sample budget,
+        // nor do structures quarantined for missing over and over in this dimension.
+        // Only checked for the structures the sampler actually draws.
+        IntPredicate excluded = i -> {
+            Identifier id = sampler.id(i);
+            return skipIds.contains(id)
+                    || NegativeSearchCache.isKnownAbsent(dimension, id, origin, radiusChunks)
+                    || SearchProfile.isQuarantined(dimension, id);
+        };
+
+        int limit = Math.max(config.searchSampleSize, count);
+        int[] picks = StructureSampler.picks(limit);
+        int chosen = config.adaptiveSampling
+                ? AdaptiveSampler.select(sampler, excluded, radiusChunks, count, limit, picks)
+                : sampler.sample(excluded, limit, picks);
+        if (chosen == 0) return List.of();
+
+        // 2. Resolve what the on-disk index already knows about the drawn structures
+        StructureIndex index = config.structureIndexEnabled ? StructureIndex.forWorld(world) : null;
+        List<StructureSearchResult> indexed = List.of();
+        if (index != null) {
+            Set<Identifier> drawn = new HashSet<>(chosen * 2);
+            for (int i = 0; i < chosen; i++) {
+                drawn.add(sampler.id(picks[i]));
+            }
+            indexed = index.findNearest(origin, radiusChunks, drawn::contains, count);
+            SearchMetrics.INDEX_HITS.add(indexed.size());
+            if (indexed.size() >= count) return indexed;
+        }
 
-                RegistryEntryList<Structure> searchList = RegistryEntryList.of(entryOpt.get());
+        List<RegistryEntry<Structure>> sampled = new ArrayList<>(chosen);
+        for (int i = 0; i < chosen; i++) {
+            if (!containsId(indexed, sampler.id(picks[i]))) sampled.add(sampler.entry(picks[i]));
+        }
+        if (sampled.isEmpty()) return indexed;
+
+        // 3. Locate the rest with the generator
+        int needed = count - indexed.size();
+        List<StructureSearchResult> located;
+        try {
+            StructureLocateEngine.Result result = StructureLocateEngine.locate(world, origin, sampled, radiusChunks, needed, handle);
+            NegativeSearchCache.recordAbsent(world.getRegistryKey(), result.absent(), origin, radiusChunks);
+            AdaptiveSampler.record(result, radiusChunks);
+            SearchMetrics.LOCATE_CANDIDATES.add(sampled.size());
+            SearchMetrics.STRUCTURES_FOUND.add(result.found().size());
+            SearchMetrics.STRUCTURES_ABSENT.add(result.absent().size());
+            SearchProfile.record(world.getRegistryKey(), result);
+            located = result.hits();
+            // Predicted hits are never indexed: the index is served without another check
+            if (index != null && !result.verified().isEmpty()) index.add(result.verified());
+        } catch (Exception e) {
+            EM4ES.LOGGER.error("Structure search failed", e);
+            located = List.of();
+        }
 
-                Pair<BlockPos, RegistryEntry<Structure>> result = chunkGenerator.locateStructure(
-                        world, searchList, origin, searchRadiusBlocks, false
-                );
+        return indexed.isEmpty() ? located : merge(indexed, located);
+    }
 
-                if (result != null) {
-                    Identifier foundId = result.getSecond().getKey().orElseThrow().getValue();
-                    return new StructureSearchResult(result.getFirst(), foundId);
-                }
-            } catch (Exception e) {
-                // Ignore
-            }
+    private static boolean containsId(List<StructureSearchResult> results, Identifier id) {
+        for (StructureSearchResult result : results) {
+            if (result.id().equals(id)) return true;
         }
-        return null;
+        return false;
+    }
+
+    private static List<StructureSearchResult> merge(List<StructureSearchResult> first, List<StructureSearchResult> second) {
+        List<StructureSearchResult> merged = new ArrayList<>(first.size() + second.size());
+        merged.addAll(first);
+        merged.addAll(second);
+        return merged;
     }
 
     // --- MAIN THREAD: Create Item (Optimized) ---
     @Nullable
     public TradeOffer createTradeFromSearch(ServerWorld world, StructureSearchResult result, Set<Identifier> alreadyOffered) {
-        // Create basic map item (Scale 2, shows decorations)
-        ItemStack mapStack = FilledMapItem.createMap(world, result.pos().getX(), result.pos().getZ(), (byte) 2, true, true);
+        long started = System.nanoTime();
+        try {
+            TradeOffer offer = buildTrade(world, result, alreadyOffered);
+            if (offer != null) SearchMetrics.MAPS_DELIVERED.increment();
+            return offer;
+        } finally {
+            SearchMetrics.TRADE_BUILD.record(System.nanoTime() - started);
+        }
+    }
 
+    @Nullable
+    private TradeOffer buildTrade(ServerWorld world, StructureSearchResult result, Set<Identifier> alreadyOffered) {
         // --- CRITICAL PERFORMANCE FIX ---
         // We do NOT call FilledMapItem.fillExplorationMap(world, mapStack).
         // That method forces chunk generation on the main thread.
-        // Skipping it leaves the map blank (paper color) but keeps the server running smooth.
-
-        // Add the Target Icon and Name
-        EM4ES.addDecorationsAndColor(mapStack, result.pos(), result.id().toString(), result.id().hashCode());
-        mapStack.set(DataComponentTypes.CUSTOM_NAME, Text.literal(EM4ES.formatName(result.id().getPath()) + " Map"));
+        // The offer sells a lazy map: it gets its map ID and a preview drawn off-thread once it is bought.
+        ItemStack mapStack = LazyExplorerMap.create(world, result.pos(), result.id());
 
         if (!mapStack.isEmpty()) {
             alreadyOffered.add(result.id());
@@ -116,15 +167,4 @@ public class ExplorerMapTradeFactory implements TradeOffers.Factory {
         }
         return null;
     }
-
-    private static synchronized void initializeCache(Registry<Structure> registry) {
-        if (CACHED_STRUCTURE_KEYS != null) return;
-        List<RegistryKey<Structure>> keys = new ArrayList<>();
-        for (Identifier id : registry.getIds()) {
-            if (EM4ES.getCostForStructure(id) != null) {
-                registry.getKey(registry.get(id)).ifPresent(keys::add);
-            }
-        }
-        CACHED_STRUCTURE_KEYS = keys;
-    }
-}
\ No newline at end of file
+}
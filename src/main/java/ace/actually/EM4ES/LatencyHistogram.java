@@ -0,0 +1,60 @@
+package ace.actually.EM4ES;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe timing histogram with power-of-two microsecond buckets.
+ * <p>
+ * Percentiles are reported as the upper edge of the bucket they fall in, so they are at most 2x high,
+ * which is enough to tell a 1 ms cost from a 50 ms one at a fixed, tiny memory cost.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * @param p50Ms   median, bucket upper edge
+     * @param p99Ms   99th percentile, bucket upper edge
+     * @param maxMs   exact maximum
+     * @param totalMs exact sum of all samples
+     */
+    public record Snapshot(long count, double meanMs, double p50Ms, double p99Ms, double maxMs, double totalMs) {
+        public static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, 0, 0);
+    }
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0) return;
+        long micros = Math.max(1, nanos / 1000);
+        buckets[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros))]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized Snapshot snapshot() {
+        if (count == 0) return Snapshot.EMPTY;
+        return new Snapshot(count, totalNanos / 1e6 / count, percentileMs(0.50), percentileMs(0.99), maxNanos / 1e6, totalNanos / 1e6);
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    private double percentileMs(double percentile) {
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min((1L << (i + 1)) / 1000.0, maxNanos / 1e6);
+        }
+        return maxNanos / 1e6;
+    }
+}
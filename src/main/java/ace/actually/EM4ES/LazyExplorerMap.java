@@ -0,0 +1,116 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.component.type.MapIdComponent;
+import net.minecraft.component.type.NbtComponent;
+import net.minecraft.item.FilledMapItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Explorer maps that only get a map ID once a player actually owns them.
+ * <p>
+ * {@code FilledMapItem.createMap} allocates an ID and a {@code map_N.dat} file straight away, so every
+ * offered map a trader despawned with used to stay in the save forever. Offers now sell a filled map
+ * with the name, target decoration and colour already set, but no {@code map_id}. The target is kept in
+ * custom data under {@link #NBT_KEY}. The first inventory tick in a player's inventory
+ * ({@code FilledMapItemMixin}) allocates the real map in the target's dimension and draws its preview,
+ * or reuses the ID of an identical map from {@link ExplorerMapRegistry}.
+ * <p>
+ * With previews off, decoded maps get vanilla's exploration fill as they always did; trade maps were never
+ * filled on the server thread and stay blank until explored.
+ */
+public final class LazyExplorerMap {
+
+    public static final String NBT_KEY = "EM4ES_MapTarget";
+    private static final byte SCALE = 2;
+
+    private LazyExplorerMap() {}
+
+    /**
+     * A trade map item pointing at {@code pos} that has no map state yet.
+     */
+    public static ItemStack create(ServerWorld world, BlockPos pos, Identifier structureId) {
+        return create(world, pos, structureId, false);
+    }
+
+    /**
+     * @param decoded whether the map comes from an unidentified map rather than a trade
+     */
+    public static ItemStack create(ServerWorld world, BlockPos pos, Identifier structureId, boolean decoded) {
+        ItemStack mapStack = new ItemStack(Items.FILLED_MAP);
+        EM4ES.addDecorationsAndColor(mapStack, pos, structureId.toString(), structureId.hashCode());
+        mapStack.set(DataComponentTypes.CUSTOM_NAME, Text.literal(EM4ES.formatName(structureId.getPath()) + " Map"));
+
+        NbtCompound target = new NbtCompound();
+        target.putLong("Pos", pos.asLong());
+        target.putString("Dimension", world.getRegistryKey().getValue().toString());
+        target.putString("Structure", structureId.toString());
+        if (decoded) target.putBoolean("Decoded", true);
+        NbtComponent.set(DataComponentTypes.CUSTOM_DATA, mapStack, nbt -> nbt.put(NBT_KEY, target));
+        return mapStack;
+    }
+
+    /**
+     * Gives a lazy map its map state, in place. Does nothing for any other stack.
+     *
+     * @param world used when the recorded dimension no longer exists
+     * @return whether a map was allocated
+     */
+    public static boolean materialize(ServerWorld world, ItemStack stack) {
+        NbtComponent customData = stack.get(DataComponentTypes.CUSTOM_DATA);
+        if (customData == null || !customData.contains(NBT_KEY)) return false;
+
+        NbtCompound nbt = customData.copyNbt();
+        NbtCompound target = nbt.getCompound(NBT_KEY);
+        nbt.remove(NBT_KEY);
+        if (nbt.isEmpty()) {
+            stack.remove(DataComponentTypes.CUSTOM_DATA);
+        } else {
+            stack.set(DataComponentTypes.CUSTOM_DATA, NbtComponent.of(nbt));
+        }
+        // Already has a map (e.g. copied by another mod), just drop the marker
+        if (stack.contains(DataComponentTypes.MAP_ID)) return false;
+
+        ServerWorld mapWorld = world;
+        Identifier dimension = Identifier.tryParse(target.getString("Dimension"));
+        if (dimension != null) {
+            ServerWorld recorded = world.getServer().getWorld(RegistryKey.of(RegistryKeys.WORLD, dimension));
+            if (recorded != null) mapWorld = recorded;
+        }
+
+        long pos = target.getLong("Pos");
+        Identifier structure = Identifier.tryParse(target.getString("Structure"));
+        ExplorerMapRegistry registry = ExplorerMapRegistry.get(world.getServer());
+
+        // Another player already owns a map of this exact structure: share its ID (and its preview)
+        if (EM4ES.config().mapDedupeEnabled && structure != null) {
+            MapIdComponent shared = registry.find(mapWorld, structure, pos, SCALE);
+            if (shared != null) {
+                stack.set(DataComponentTypes.MAP_ID, shared);
+                SearchMetrics.MAPS_SHARED.increment();
+                return true;
+            }
+        }
+
+        BlockPos center = BlockPos.fromLong(pos);
+        MapIdComponent mapId = FilledMapItem.createMap(mapWorld, center.getX(), center.getZ(), SCALE, true, true).get(DataComponentTypes.MAP_ID);
+        stack.set(DataComponentTypes.MAP_ID, mapId);
+        if (structure != null) registry.register(mapWorld, structure, pos, SCALE, mapId);
+        SearchMetrics.MAPS_MATERIALIZED.increment();
+
+        if (EM4ES.config().mapPreviewEnabled) {
+            MapPreviewRenderer.schedule(mapWorld, stack);
+        } else if (target.getBoolean("Decoded")) {
+            FilledMapItem.fillExplorationMap(mapWorld, stack);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.entity.passive.MerchantEntity;
+import net.minecraft.screen.MerchantScreenHandler;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Where finished searches get applied to the world.
+ * <p>
+ * Instead of one {@code server.execute} per finished search, callbacks queue here and are drained at the
+ * end of each tick until {@link EM4ESConfig#applyBudgetMs} is used up (at least one per tick, so the queue
+ * always moves). Twenty searches finishing at once then spread their map creation over a few ticks
+ * instead of stacking into one.
+ * <p>
+ * Trade screen refreshes are coalesced too: {@link #refreshTradeScreen} only marks the merchant, and each
+ * marked merchant's customer gets one {@code sendTradeOffers} after the drain.
+ */
+public final class MainThreadApplyQueue {
+
+    private static final Queue<Runnable> PENDING = new ConcurrentLinkedQueue<>();
+    // Only touched on the server thread
+    private static final Set<MerchantEntity> DIRTY_SCREENS = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Pass to {@code thenAcceptAsync} and friends in place of the server.
+     */
+    public static final Executor EXECUTOR = PENDING::add;
+
+    private MainThreadApplyQueue() {}
+
+    /**
+     * Marks a merchant's open trade screen for a refresh at the end of this tick. Server thread only.
+     */
+    public static void refreshTradeScreen(MerchantEntity merchant) {
+        DIRTY_SCREENS.add(merchant);
+    }
+
+    public static void onTickEnd(MinecraftServer server) {
+        long deadline = System.nanoTime() + EM4ES.config().applyBudgetMs * 1_000_000L;
+        Runnable task;
+        do {
+            task = PENDING.poll();
+            if (task == null) break;
+            try {
+                task.run();
+            } catch (Exception e) {
+                EM4ES.LOGGER.error("Error applying search results", e);
+            }
+        } while (System.nanoTime() < deadline);
+
+        if (!DIRTY_SCREENS.isEmpty()) {
+            for (MerchantEntity merchant : DIRTY_SCREENS) {
+                sendTradeOffers(merchant);
+            }
+            DIRTY_SCREENS.clear();
+        }
+    }
+
+    public static int pending() {
+        return PENDING.size();
+    }
+
+    public static void clear() {
+        PENDING.clear();
+        DIRTY_SCREENS.clear();
+    }
+
+    private static void sendTradeOffers(MerchantEntity merchant) {
+        if (merchant.isRemoved()) return;
+        if (merchant.getCustomer() instanceof ServerPlayerEntity player && player.currentScreenHandler instanceof MerchantScreenHandler) {
+            // Wandering traders report 0 experience and are neither leveled nor refreshable
+            player.sendTradeOffers(
+                    player.currentScreenHandler.syncId,
+                    merchant.getOffers(),
+                    0, // Level Progress
+                    merchant.getExperience(),
+                    merchant.isLeveledMerchant(),
+                    merchant.canRefreshTrades()
+            );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.passive.MerchantEntity;
+import net.minecraft.entity.passive.VillagerEntity;
+import net.minecraft.entity.passive.WanderingTraderEntity;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fills {@link MapStockPool} while the server has time to spare.
+ * <p>
+ * Every loaded villager and wandering trader is tracked. At the end of a tick that took less than
+ * {@link EM4ESConfig#prewarmMaxTickMs}, and only while the search pool is idle, the next tracked merchant in
+ * round-robin order gets a background search for its area if that area is below its stock target.
+ * At most one pre-warm search runs at a time so it never competes with searches players are waiting on.
+ */
+public final class MapPreWarmer {
+
+    private record Tracked(RegistryKey<World> dimension, UUID id) {}
+
+    private static final Set<Tracked> TRACKED = ConcurrentHashMap.newKeySet();
+    private static final ArrayDeque<Tracked> ROTATION = new ArrayDeque<>();
+
+    private static int ticksSinceLastRun;
+    private static volatile boolean running;
+
+    private MapPreWarmer() {}
+
+    public static void onEntityLoad(Entity entity, ServerWorld world) {
+        if (entity instanceof VillagerEntity || entity instanceof WanderingTraderEntity) {
+            TRACKED.add(new Tracked(world.getRegistryKey(), entity.getUuid()));
+        }
+    }
+
+    public static void onEntityUnload(Entity entity, ServerWorld world) {
+        if (entity instanceof VillagerEntity || entity instanceof WanderingTraderEntity) {
+            TRACKED.remove(new Tracked(world.getRegistryKey(), entity.getUuid()));
+        }
+    }
+
+    public static void onTickEnd(MinecraftServer server) {
+        EM4ESConfig config = EM4ES.config();
+        if (!config.prewarmEnabled || running) return;
+        if (++ticksSinceLastRun < Math.max(1, config.prewarmIntervalTicks)) return;
+
+        // SearchMetrics ends its tick measurement first, see EM4ES.onInitialize
+        long tickMs = SearchMetrics.lastTickNanos() / 1_000_000L;
+        if (tickMs >= config.prewarmMaxTickMs || !MapSearchPool.isIdle()) return;
+
+        ticksSinceLastRun = 0;
+        warmNext(server);
+    }
+
+    public static void clear() {
+        TRACKED.clear();
+        ROTATION.clear();
+        running = false;
+    }
+
+    /**
+     * Starts a search for the first merchant in the rotation whose area is short on stock.
+     * Looks at a bounded number of merchants per call so a crowded server never pays for a full sweep.
+     */
+    private static void warmNext(MinecraftServer server) {
+        if (ROTATION.isEmpty()) ROTATION.addAll(TRACKED);
+
+        for (int checked = 0; checked < 16 && !ROTATION.isEmpty(); checked++) {
+            Tracked tracked = ROTATION.poll();
+            ServerWorld world = server.getWorld(tracked.dimension());
+            if (world == null || !TRACKED.contains(tracked)) continue;
+
+            Entity entity = world.getEntity(tracked.id());
+            int radiusChunks = radiusFor(entity);
+            if (radiusChunks <= 0) continue;
+
+            Set<Identifier> stocked = MapStockPool.stockedIds(tracked.dimension(), entity.getBlockPos());
+            int missing = EM4ES.config().prewarmStockPerArea - stocked.size();
+            if (missing <= 0) continue;
+
+            SearchRequest request = SearchRequest.of(world, entity.getBlockPos(), stocked, radiusChunks, missing);
+            running = true;
+            MapSearchPool.searchWithoutStock(server, request, SearchPriority.BACKGROUND_FILL).whenComplete((results, error) -> {
+                if (results != null) MapStockPool.offer(request.dimension(), request.origin(), results);
+                running = false;
+            });
+            return;
+        }
+    }
+
+    /**
+     * The radius a restock for this merchant would search, or 0 if it never sells maps.
+     */
+    private static int radiusFor(Entity entity) {
+        return entity instanceof MerchantEntity merchant ? MapStockEngine.radiusChunksFor(merchant) : 0;
+    }
+}
@@ -0,0 +1,105 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.entity.passive.MerchantEntity;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps a few search results queued on each map-selling merchant so an exhausted map trade can be
+ * replaced straight away instead of waiting for a search.
+ * <p>
+ * The queue lives on the entity (see {@link VillagerDataAccessor#getPrefetchedMaps()}), holds at most
+ * {@link EM4ESConfig#prefetchDepth} results with IDs the merchant does not offer yet, and is saved with it.
+ */
+public final class MapPrefetch {
+
+    private static final String NBT_KEY = "EM4ES_Prefetch";
+
+    private MapPrefetch() {}
+
+    /**
+     * Takes the next queued result the merchant does not already offer, dropping any that went stale.
+     */
+    @Nullable
+    public static StructureSearchResult takeNext(VillagerDataAccessor accessor) {
+        Deque<StructureSearchResult> queue = accessor.getPrefetchedMaps();
+        StructureSearchResult next;
+        while ((next = queue.poll()) != null) {
+            if (!accessor.getOfferedStructureMaps().contains(next.id())) return next;
+        }
+        return null;
+    }
+
+    /**
+     * Starts a background search to top the merchant's queue back up, unless one is already running.
+     * Call from the server thread only.
+     */
+    public static void refill(MerchantEntity merchant, int radiusChunks) {
+        VillagerDataAccessor accessor = (VillagerDataAccessor) merchant;
+        MinecraftServer server = merchant.getServer();
+        int missing = EM4ES.config().prefetchDepth - accessor.getPrefetchedMaps().size();
+        if (server == null || missing <= 0 || accessor.isPrefetching()) return;
+
+        Set<Identifier> skip = new HashSet<>(accessor.getOfferedStructureMaps());
+        for (StructureSearchResult queued : accessor.getPrefetchedMaps()) {
+            skip.add(queued.id());
+        }
+
+        accessor.setPrefetching(true);
+        ServerWorld serverWorld = (ServerWorld) merchant.getWorld();
+        UUID merchantId = merchant.getUuid();
+        SearchRequest request = SearchRequest.forEntity(merchant, skip, radiusChunks, missing);
+        MapSearchPool.submit(server, request, SearchPriority.BACKGROUND_FILL).thenAcceptAsync(SearchMetrics.timedApply(results -> {
+            if (!(serverWorld.getEntity(merchantId) instanceof VillagerDataAccessor loaded)) return;
+            try {
+                // Offers may have changed while searching, so filter again
+                for (StructureSearchResult result : results) {
+                    if (loaded.getPrefetchedMaps().size() >= EM4ES.config().prefetchDepth) break;
+                    if (loaded.getOfferedStructureMaps().contains(result.id())) continue;
+                    if (loaded.getPrefetchedMaps().stream().anyMatch(queued -> queued.id().equals(result.id()))) continue;
+                    loaded.getPrefetchedMaps().add(result);
+                }
+            } finally {
+                loaded.setPrefetching(false);
+            }
+        }), MainThreadApplyQueue.EXECUTOR);
+    }
+
+    public static void writeNbt(Deque<StructureSearchResult> queue, NbtCompound nbt) {
+        if (queue.isEmpty()) return;
+
+        NbtList list = new NbtList();
+        for (StructureSearchResult result : queue) {
+            NbtCompound entry = new NbtCompound();
+            entry.putString("id", result.id().toString());
+            entry.putLong("pos", result.pos().asLong());
+            list.add(entry);
+        }
+        nbt.put(NBT_KEY, list);
+    }
+
+    public static void readNbt(Deque<StructureSearchResult> queue, NbtCompound nbt) {
+        queue.clear();
+        if (!nbt.contains(NBT_KEY, NbtElement.LIST_TYPE)) return;
+
+        NbtList list = nbt.getList(NBT_KEY, NbtElement.COMPOUND_TYPE);
+        for (int i = 0; i < list.size(); i++) {
+            NbtCompound entry = list.getCompound(i);
+            Identifier id = Identifier.tryParse(entry.getString("id"));
+            if (id != null) {
+                queue.add(new StructureSearchResult(BlockPos.fromLong(entry.getLong("pos")), id));
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.block.MapColor;
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.component.type.MapIdComponent;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.map.MapState;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.tag.BiomeTags;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.HeightLimitView;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeKeys;
+import net.minecraft.world.biome.source.BiomeSource;
+import net.minecraft.world.biome.source.util.MultiNoiseUtil;
+import net.minecraft.world.gen.chunk.ChunkGenerator;
+import net.minecraft.world.gen.noise.NoiseConfig;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Fills explorer maps with a rough picture of the terrain without loading or generating chunks.
+ * <p>
+ * Vanilla's {@code FilledMapItem.fillExplorationMap} reads real chunks on the main thread, which is why
+ * traded maps used to stay blank. Here the colours come from the biome source and the heights from the
+ * noise router, both of which are pure functions of the seed. The pixel buffer is rendered on the search
+ * workers and copied into the {@link MapState} through {@link MainThreadApplyQueue}. Only pixels that are
+ * still blank get written, so anything a player explored in the meantime wins.
+ * <p>
+ * Heights are sampled every {@value #HEIGHT_STEP} pixels and interpolated; biomes are sampled per pixel.
+ * Dimensions with a ceiling get flat shading, since their "surface" is the roof.
+ * <p>
+ * A preview the pool turns away under load is kept and submitted again on a later tick when the pool is
+ * idle, one per tick, since the map it belongs to has no other way to get drawn. At most
+ * {@value #MAX_DEFERRED} wait at once and each gets {@value #MAX_ATTEMPTS} tries; past either the map stays blank.
+ */
+public final class MapPreviewRenderer {
+
+    private static final int SIZE = 128;
+    private static final int HEIGHT_STEP = 4;
+    private static final int GRID = SIZE / HEIGHT_STEP + 1;
+
+    private static final int MAX_DEFERRED = 256;
+    private static final int MAX_ATTEMPTS = 5;
+
+    private record Deferred(RegistryKey<World> dimension, MapIdComponent mapId, int attempts) {}
+
+    // Only touched on the server thread
+    private static final Deque<Deferred> DEFERRED = new ArrayDeque<>();
+
+    private MapPreviewRenderer() {}
+
+    /**
+     * Queues a preview for a freshly created map. Does nothing if previews are off or the map has no state.
+     */
+    public static void schedule(ServerWorld world, ItemStack mapStack) {
+        if (!EM4ES.config().mapPreviewEnabled) return;
+
+        MapIdComponent mapId = mapStack.get(DataComponentTypes.MAP_ID);
+        if (mapId != null) submit(world, mapId, 1);
+    }
+
+    /**
+     * Resubmits one turned-away preview if the pool has room again.
+     */
+    public static void onTickEnd(MinecraftServer server) {
+        if (DEFERRED.isEmpty() || !MapSearchPool.isIdle()) return;
+        Deferred deferred = DEFERRED.poll();
+        ServerWorld world = server.getWorld(deferred.dimension());
+        if (world != null) submit(world, deferred.mapId(), deferred.attempts() + 1);
+    }
+
+    public static void clear() {
+        DEFERRED.clear();
+    }
+
+    private static void submit(ServerWorld world, MapIdComponent mapId, int attempt) {
+        MapState state = world.getMapState(mapId);
+        if (state == null) return;
+
+        // Snapshot everything the worker needs, it must not touch the world itself
+        ChunkGenerator generator = world.getChunkManager().getChunkGenerator();
+        NoiseConfig noiseConfig = world.getChunkManager().getNoiseConfig();
+        HeightLimitView heightLimit = HeightLimitView.create(world.getBottomY(), world.getHeight());
+        Terrain terrain = new Terrain(generator, noiseConfig, heightLimit, world.getSeaLevel(), world.getDimension().hasCeiling());
+        int centerX = state.centerX;
+        int centerZ = state.centerZ;
+        int scale = state.scale;
+
+        MapSearchPool.runBackground(() -> render(terrain, centerX, centerZ, scale))
+                .thenAcceptAsync(colors -> apply(world, mapId, attempt, colors), MainThreadApplyQueue.EXECUTOR);
+    }
+
+    private record Terrain(ChunkGenerator generator, NoiseConfig noiseConfig, HeightLimitView heightLimit, int seaLevel, boolean ceiling) {}
+
+    @Nullable
+    private static byte[] render(Terrain terrain, int centerX, int centerZ, int scale) {
+        long started = System.nanoTime();
+        int blocksPerPixel = 1 << scale;
+        int originX = centerX - (SIZE / 2) * blocksPerPixel;
+        int originZ = centerZ - (SIZE / 2) * blocksPerPixel;
+
+        // 1. Coarse height grid, one noise column per HEIGHT_STEP pixels
+        int[] heights = new int[GRID * GRID];
+        for (int gz = 0; gz < GRID; gz++) {
+            if (Thread.currentThread().isInterrupted()) return null;
+            for (int gx = 0; gx < GRID; gx++) {
+                heights[gz * GRID + gx] = terrain.ceiling() ? terrain.seaLevel()
+                        : terrain.generator().getHeightOnGround(originX + gx * HEIGHT_STEP * blocksPerPixel,
+                        originZ + gz * HEIGHT_STEP * blocksPerPixel, Heightmap.Type.OCEAN_FLOOR_WG, terrain.heightLimit(), terrain.noiseConfig());
+            }
+        }
+
+        // 2. Per-pixel biome and shading, north to south like vanilla so "previous" is the pixel above
+        BiomeSource biomes = terrain.generator().getBiomeSource();
+        MultiNoiseUtil.MultiNoiseSampler sampler = terrain.noiseConfig().getMultiNoiseSampler();
+        byte[] colors = new byte[SIZE * SIZE];
+        for (int px = 0; px < SIZE; px++) {
+            if (Thread.currentThread().isInterrupted()) return null;
+            double previousHeight = interpolatedHeight(heights, px, 0);
+            for (int pz = 0; pz < SIZE; pz++) {
+                double height = interpolatedHeight(heights, px, pz);
+                int blockX = originX + px * blocksPerPixel + blocksPerPixel / 2;
+                int blockZ = originZ + pz * blocksPerPixel + blocksPerPixel / 2;
+                RegistryEntry<Biome> biome = biomes.getBiome(blockX >> 2, (int) height >> 2, blockZ >> 2, sampler);
+                colors[px + pz * SIZE] = pixel(biome, height, previousHeight, terrain, px, pz, scale);
+                previousHeight = height;
+            }
+        }
+        SearchMetrics.PREVIEW_RENDER.record(System.nanoTime() - started);
+        return colors;
+    }
+
+    private static double interpolatedHeight(int[] heights, int px, int pz) {
+        int gx = px / HEIGHT_STEP;
+        int gz = pz / HEIGHT_STEP;
+        double fx = (px % HEIGHT_STEP) / (double) HEIGHT_STEP;
+        double fz = (pz % HEIGHT_STEP) / (double) HEIGHT_STEP;
+        double north = heights[gz * GRID + gx] * (1 - fx) + heights[gz * GRID + gx + 1] * fx;
+        double south = heights[(gz + 1) * GRID + gx] * (1 - fx) + heights[(gz + 1) * GRID + gx + 1] * fx;
+        return north * (1 - fz) + south * fz;
+    }
+
+    /**
+     * One map pixel, shaded the way {@code FilledMapItem.updateColors} shades real terrain.
+     */
+    private static byte pixel(RegistryEntry<Biome> biome, double height, double previousHeight, Terrain terrain, int px, int pz, int scale) {
+        double dither = (px + pz & 1) - 0.5;
+
+        if (!terrain.ceiling() && height < terrain.seaLevel()) {
+            double depth = (terrain.seaLevel() - height) * 0.1 + (dither + 0.5) * 0.2;
+            MapColor.Brightness brightness = depth < 0.5 ? MapColor.Brightness.HIGH
+                    : depth > 0.9 ? MapColor.Brightness.LOW : MapColor.Brightness.NORMAL;
+            return MapColor.WATER_BLUE.getRenderColorByte(brightness);
+        }
+
+        MapColor.Brightness brightness = MapColor.Brightness.NORMAL;
+        if (!terrain.ceiling()) {
+            double slope = (height - previousHeight) * 4.0 / (scale + 4) + dither * 0.4;
+            if (slope > 0.6) brightness = MapColor.Brightness.HIGH;
+            else if (slope < -0.6) brightness = MapColor.Brightness.LOW;
+        }
+        return colorOf(biome).getRenderColorByte(brightness);
+    }
+
+    private static MapColor colorOf(RegistryEntry<Biome> biome) {
+        if (biome.isIn(BiomeTags.IS_NETHER)) return MapColor.DARK_RED;
+        if (biome.isIn(BiomeTags.IS_END)) return MapColor.PALE_YELLOW;
+        if (biome.isIn(BiomeTags.IS_OCEAN) || biome.isIn(BiomeTags.IS_RIVER)) return MapColor.WATER_BLUE;
+        if (biome.isIn(BiomeTags.IS_BADLANDS)) return MapColor.ORANGE;
+        if (biome.isIn(BiomeTags.IS_BEACH) || biome.matchesKey(BiomeKeys.DESERT)) return MapColor.PALE_YELLOW;
+        if (biome.value().getTemperature() < 0.15f) return MapColor.WHITE;
+        if (biome.isIn(BiomeTags.IS_MOUNTAIN)) return MapColor.STONE_GRAY;
+        if (biome.isIn(BiomeTags.IS_FOREST) || biome.isIn(BiomeTags.IS_TAIGA) || biome.isIn(BiomeTags.IS_JUNGLE)) return MapColor.DARK_GREEN;
+        return MapColor.PALE_GREEN;
+    }
+
+    private static void apply(ServerWorld world, MapIdComponent mapId, int attempt, @Nullable byte[] colors) {
+        if (colors == null) {
+            // Turned away (or cut short) by a busy pool; the map stays blank until it is drawn after all
+            if (attempt < MAX_ATTEMPTS && DEFERRED.size() < MAX_DEFERRED) {
+                DEFERRED.add(new Deferred(world.getRegistryKey(), mapId, attempt));
+            } else {
+                EM4ES.LOGGER.debug("Giving up on the preview of {} after {} attempts ({} waiting)", mapId.asString(), attempt, DEFERRED.size());
+            }
+            return;
+        }
+        MapState state = world.getMapState(mapId);
+        if (state == null) return;
+
+        for (int pz = 0; pz < SIZE; pz++) {
+            for (int px = 0; px < SIZE; px++) {
+                int index = px + pz * SIZE;
+                if (state.colors[index] == 0) state.setColor(px, pz, colors[index]);
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Worker pool for structure searches.
+ * <p>
+ * Sized by {@link EM4ESConfig#searchThreads} with a queue bounded by {@link EM4ESConfig#searchQueueSize}.
+ * Started when the server starts and shut down when it stops. A job that does not fit in the queue
+ * completes straight away with no results, so callers only ever have to handle "found nothing".
+ * <p>
+ * The queue is ordered by {@link SearchPriority}, with aging so background fills still get their turn.
+ * <p>
+ * Identical searches are coalesced: while a job for the same dimension, 128-block origin region and radius
+ * is still running, later requests attach to it instead of queueing their own. The shared job searches
+ * without a skip set and each requester gets the results minus its own offered structures, so a trading
+ * hall full of cartographers costs one search per village rather than one per villager.
+ * <p>
+ * Requests made for an entity are cancelled when that entity is unloaded or removed
+ * ({@link #cancelOwner}). A shared job keeps running until every requester attached to it is gone.
+ * Jobs only hold {@link SearchRequest} snapshots, so nothing in the queue keeps an entity alive as long
+ * as callers resolve their merchant by UUID when the results arrive.
+ * <p>
+ * Results pre-warmed into {@link MapStockPool} are handed out first; only what the stock cannot cover is searched for.
+ * <p>
+ * Other off-thread work for maps (such as {@link MapPreviewRenderer}) can borrow the workers through
+ * {@link #runBackground}; it is ranked like a background fill.
+ */
+public final class MapSearchPool {
+
+    private static volatile ThreadPoolExecutor executor;
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static final int COALESCE_REGION_SHIFT = 7;
+    private static final Map<SearchArea, SharedSearch> IN_FLIGHT = new ConcurrentHashMap<>();
+    private static final Map<UUID, Set<Ticket>> BY_OWNER = new ConcurrentHashMap<>();
+
+    private record SearchArea(RegistryKey<World> dimension, int regionX, int regionZ, int radiusChunks) {
+        static SearchArea of(SearchRequest request) {
+            return new SearchArea(request.dimension(), request.origin().getX() >> COALESCE_REGION_SHIFT,
+                    request.origin().getZ() >> COALESCE_REGION_SHIFT, request.radiusChunks());
+        }
+    }
+
+    /**
+     * @param fetchCount how many results the shared job asks for (enough for the leader after its own skips)
+     */
+    private record SharedSearch(Job job, int fetchCount, SearchPriority priority) {}
+
+    /**
+     * One requester's view of a (possibly shared) job.
+     */
+    private record Ticket(Job job, CompletableFuture<List<StructureSearchResult>> future) {
+        void cancel() {
+            if (future.cancel(false)) {
+                SearchMetrics.CANCELLED.increment();
+                job.detach();
+            }
+        }
+    }
+
+    private MapSearchPool() {}
+
+    public static synchronized void start() {
+        if (executor != null) return;
+
+        int threads = Math.max(1, EM4ES.config().searchThreads);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "EM4ES-Search-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((t, e) -> EM4ES.LOGGER.error("Uncaught exception in {}", t.getName(), e));
+            return thread;
+        };
+
+        // The queue itself is unbounded, submit() enforces the size limit
+        executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), factory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        EM4ES.LOGGER.info("EM4ES search pool started with {} threads", threads);
+    }
+
+    /**
+     * Changes the number of workers of a running pool. Running searches finish on their thread; surplus
+     * workers stop once they are idle.
+     */
+    public static synchronized void resize(int threads) {
+        if (executor == null) return;
+        int size = Math.max(1, threads);
+        if (size == executor.getMaximumPoolSize()) return;
+
+        // The core size may never exceed the maximum, so grow the maximum first and shrink it last
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+        EM4ES.LOGGER.info("EM4ES search pool resized to {} threads", size);
+    }
+
+    public static synchronized void shutdown() {
+        if (executor == null) return;
+
+        for (Runnable pending : executor.shutdownNow()) {
+            if (pending instanceof PoolTask task) task.abandon();
+        }
+        BY_OWNER.clear();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                EM4ES.LOGGER.warn("EM4ES search pool did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        IN_FLIGHT.clear();
+    }
+
+    /**
+     * Queues a search, or attaches to an identical one that is already running. The future completes
+     * with an empty list if nothing was found, the queue was full or the pool is stopped, and is
+     * cancelled if the request's owner goes away first. Apply the results on the server thread with
+     * {@code thenAcceptAsync(results -> ..., MainThreadApplyQueue.EXECUTOR)}, which skips cancelled requests.
+     * <p>
+     * Call from the server thread only.
+     */
+    public static CompletableFuture<List<StructureSearchResult>> submit(MinecraftServer server, SearchRequest request, SearchPriority priority) {
+        List<StructureSearchResult> stocked = MapStockPool.take(request);
+        if (stocked.isEmpty()) return searchWithoutStock(server, request, priority);
+        SearchMetrics.STOCK_HITS.add(stocked.size());
+        if (stocked.size() >= request.count()) return CompletableFuture.completedFuture(stocked);
+
+        // Search only for the rest, skipping what the stock already supplied
+        Set<Identifier> skip = new HashSet<>(request.skipIds());
+        for (StructureSearchResult result : stocked) {
+            skip.add(result.id());
+        }
+        SearchRequest rest = new SearchRequest(request.dimension(), request.origin(), request.radiusChunks(), Set.copyOf(skip),
+                request.count() - stocked.size(), request.owner());
+        return searchWithoutStock(server, rest, priority).thenApply(found -> {
+            List<StructureSearchResult> merged = new ArrayList<>(stocked);
+            merged.addAll(found);
+            return merged;
+        });
+    }
+
+    /**
+     * Like {@link #submit} but always searches. Used by {@link MapPreWarmer} to fill the stock.
+     */
+    static CompletableFuture<List<StructureSearchResult>> searchWithoutStock(MinecraftServer server, SearchRequest request, SearchPriority priority) {
+        if (!EM4ES.config().searchCoalesce) {
+            return track(request, enqueue(server, request, priority), false);
+        }
+
+        SearchArea area = SearchArea.of(request);
+        int needed = request.count() + request.skipIds().size();
+
+        // Only ride along if the running job fetches enough and is at least as urgent as we are
+        SharedSearch running = IN_FLIGHT.get(area);
+        if (running != null && running.fetchCount() >= needed && running.priority().ordinal() <= priority.ordinal()
+                && running.job().tryAttach()) {
+            SearchMetrics.COALESCED.increment();
+            return track(request, running.job(), true);
+        }
+
+        SearchRequest shared = new SearchRequest(request.dimension(), request.origin(), request.radiusChunks(), Set.of(), needed, null);
+        Job job = enqueue(server, shared, priority);
+        if (!job.future.isDone()) {
+            SharedSearch search = new SharedSearch(job, needed, priority);
+            IN_FLIGHT.put(area, search);
+            job.future.whenComplete((results, error) -> IN_FLIGHT.remove(area, search));
+        }
+        return track(request, job, true);
+    }
+
+    /**
+     * Runs low-priority work on the search workers. Completes with {@code null} if the pool is stopped
+     * or already half full, so background work never pushes searches out of the queue.
+     */
+    static <T> CompletableFuture<T> runBackground(Supplier<T> work) {
+        BackgroundTask<T> task = new BackgroundTask<>(work);
+        ThreadPoolExecutor current = executor;
+        if (current == null || current.getQueue().size() >= Math.max(1, EM4ES.config().searchQueueSize) / 2) {
+            task.abandon();
+            return task.future;
+        }
+        try {
+            current.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.abandon();
+        }
+        return task.future;
+    }
+
+    /**
+     * True when no job is queued and at least one worker is free.
+     */
+    public static boolean isIdle() {
+        ThreadPoolExecutor current = executor;
+        return current != null && current.getQueue().isEmpty() && current.getActiveCount() < current.getMaximumPoolSize();
+    }
+
+    public static int queueDepth() {
+        ThreadPoolExecutor current = executor;
+        return current != null ? current.getQueue().size() : 0;
+    }
+
+    public static int activeJobs() {
+        ThreadPoolExecutor current = executor;
+        return current != null ? current.getActiveCount() : 0;
+    }
+
+    /**
+     * Cancels every request made for the given entity. Queued jobs nobody else is waiting for are dropped,
+     * running ones stop at their next checkpoint.
+     */
+    public static void cancelOwner(UUID owner) {
+        Set<Ticket> tickets = BY_OWNER.remove(owner);
+        if (tickets == null) return;
+        for (Ticket ticket : tickets) {
+            ticket.cancel();
+        }
+    }
+
+    private static CompletableFuture<List<StructureSearchResult>> track(SearchRequest request, Job job, boolean filter) {
+        CompletableFuture<List<StructureSearchResult>> mine = new CompletableFuture<>();
+        job.future.thenAccept(results -> mine.complete(filter ? forRequester(results, request) : results));
+
+        UUID owner = request.owner();
+        if (owner != null) {
+            Ticket ticket = new Ticket(job, mine);
+            BY_OWNER.computeIfAbsent(owner, id -> ConcurrentHashMap.newKeySet()).add(ticket);
+            mine.whenComplete((results, error) -> {
+                Set<Ticket> tickets = BY_OWNER.get(owner);
+                if (tickets != null) tickets.remove(ticket);
+            });
+        }
+        return mine;
+    }
+
+    /**
+     * Cuts a shared result list down to what one requester asked for.
+     */
+    private static List<StructureSearchResult> forRequester(List<StructureSearchResult> results, SearchRequest request) {
+        List<StructureSearchResult> filtered = new ArrayList<>(Math.min(results.size(), request.count()));
+        for (StructureSearchResult result : results) {
+            if (filtered.size() >= request.count()) break;
+            if (!request.skipIds().contains(result.id())) filtered.add(result);
+        }
+        return filtered;
+    }
+
+    private static Job enqueue(MinecraftServer server, SearchRequest request, SearchPriority priority) {
+        Job job = new Job(server, request, priority);
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            job.future.complete(List.of());
+            return job;
+        }
+
+        if (current.getQueue().size() >= Math.max(1, EM4ES.config().searchQueueSize)) {
+            EM4ES.LOGGER.warn("EM4ES search queue is full ({} jobs), dropping {} search at {}", current.getQueue().size(), priority, request.origin());
+            SearchMetrics.DROPPED.increment();
+            job.future.complete(List.of());
+            return job;
+        }
+
+        try {
+            current.execute(job);
+        } catch (RejectedExecutionException e) {
+            SearchMetrics.DROPPED.increment();
+            job.future.complete(List.of());
+        }
+        return job;
+    }
+
+    /**
+     * Anything on the pool's queue. Ordered by submit time pushed back by one aging step per priority class.
+     */
+    private abstract static class PoolTask implements Runnable, Comparable<PoolTask> {
+        private final long rank;
+        private final long sequence = SEQUENCE.incrementAndGet();
+
+        PoolTask(SearchPriority priority) {
+            this.rank = System.currentTimeMillis() + priority.ordinal() * EM4ES.config().searchAgingMs;
+        }
+
+        /**
+         * Completes the task's future without running it, e.g. when the pool shuts down.
+         */
+        abstract void abandon();
+
+        @Override
+        public int compareTo(PoolTask other) {
+            int byRank = Long.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class BackgroundTask<T> extends PoolTask {
+        private final Supplier<T> work;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        BackgroundTask(Supplier<T> work) {
+            // Ranked like a background fill, so interactive searches still go first
+            super(SearchPriority.BACKGROUND_FILL);
+            this.work = work;
+        }
+
+        @Override
+        void abandon() {
+            future.complete(null);
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(work.get());
+            } catch (Exception e) {
+                EM4ES.LOGGER.error("Background map task failed", e);
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * A queued search.
+     */
+    private static final class Job extends PoolTask {
+        private final MinecraftServer server;
+        private final SearchRequest request;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<List<StructureSearchResult>> future = new CompletableFuture<>();
+        private final SearchHandle handle = SearchHandle.unstarted();
+        // Requesters still interested in this job, it is cancelled when the last one leaves
+        private final AtomicInteger attached = new AtomicInteger(1);
+
+        Job(MinecraftServer server, SearchRequest request, SearchPriority priority) {
+            super(priority);
+            this.server = server;
+            this.request = request;
+        }
+
+        @Override
+        void abandon() {
+            future.complete(List.of());
+        }
+
+        boolean tryAttach() {
+            int current;
+            do {
+                current = attached.get();
+                if (current <= 0) return false;
+            } while (!attached.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void detach() {
+            if (attached.decrementAndGet() > 0) return;
+
+            handle.cancel();
+            ThreadPoolExecutor current = executor;
+            if (current != null) current.remove(this);
+            future.complete(List.of());
+        }
+
+        @Override
+        public void run() {
+            if (handle.isCancelled()) {
+                future.complete(List.of());
+                return;
+            }
+            // The time budget starts when the job does, not when it was queued
+            handle.startClock(EM4ES.config().maxSearchTimeMs);
+            long started = System.nanoTime();
+            SearchMetrics.QUEUE_WAIT.record(started - queuedAt);
+            List<StructureSearchResult> results = MapSearchPool.run(server, request, handle);
+            SearchMetrics.SEARCH.record(System.nanoTime() - started);
+            future.complete(results);
+        }
+    }
+
+    private static List<StructureSearchResult> run(MinecraftServer server, SearchRequest request, SearchHandle handle) {
+        ServerWorld world = server.getWorld(request.dimension());
+        if (world == null) return List.of();
+
+        try {
+            return ExplorerMapTradeFactory.findStructures(world, request.origin(), request.skipIds(), request.radiusChunks(), request.count(), handle);
+        } catch (Exception e) {
+            EM4ES.LOGGER.error("Structure search failed", e);
+            return List.of();
+        }
+    }
+}
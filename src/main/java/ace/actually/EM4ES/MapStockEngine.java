@@ -0,0 +1,266 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.component.type.NbtComponent;
+import net.minecraft.entity.passive.MerchantEntity;
+import net.minecraft.entity.passive.VillagerEntity;
+import net.minecraft.entity.passive.WanderingTraderEntity;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import net.minecraft.village.TradeOffer;
+import net.minecraft.village.TradeOfferList;
+import net.minecraft.village.TradedItem;
+import net.minecraft.village.VillagerProfession;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Keeps map-selling merchants stocked. Every {@code fillRecipes} hook (cartographer level-ups, wandering
+ * trader spawns) and every {@code afterUsing} hook (a map trade selling out) delegates here.
+ * <p>
+ * {@link #fill} works out how many maps the merchant is short, shows one placeholder, submits a single
+ * search for the whole deficit and applies the results in one go. {@link #restock} replaces one sold-out
+ * map, straight from the merchant's prefetch queue when it has a result ready. Search radii are configured
+ * in blocks and converted to chunks only in {@link #radiusChunksFor}, which {@link MapPreWarmer} uses as well.
+ * <p>
+ * Placeholders are tagged with {@link #PLACEHOLDER_KEY} so {@link #stripStalePlaceholders} can drop the
+ * ones a merchant was saved with while a search was still running.
+ */
+public final class MapStockEngine {
+
+    public static final String PLACEHOLDER_KEY = "EM4ES_Placeholder";
+
+    /**
+     * What a merchant should sell right now.
+     *
+     * @param deficit      maps to add
+     * @param radiusChunks search radius in chunks
+     * @param maxUses      uses per map trade
+     * @param level        villager level the stock is for, 0 for wandering traders
+     */
+    private record StockPlan(int deficit, int radiusChunks, int maxUses, int level) {}
+
+    private MapStockEngine() {}
+
+    /**
+     * Tops up a merchant's map trades. Server thread only; does nothing while a fill is already running.
+     */
+    public static void fill(MerchantEntity merchant) {
+        if (!(merchant.getWorld() instanceof ServerWorld serverWorld) || !(merchant instanceof VillagerDataAccessor accessor)) return;
+        MinecraftServer server = serverWorld.getServer();
+
+        StockPlan plan = planFor(merchant, accessor);
+        if (plan == null || plan.deficit() <= 0) return;
+
+        if (accessor.isSearching()) {
+            EM4ES.LOGGER.debug("Map fill for {} skipped: a search is already in progress", merchant.getUuidAsString());
+            return;
+        }
+
+        accessor.setSearching(true);
+        TradeOffer placeholder = searchingPlaceholder();
+        merchant.getOffers().add(placeholder);
+        long placedAt = System.nanoTime();
+        EM4ES.LOGGER.debug("Searching for {} maps for {}", plan.deficit(), merchant.getUuidAsString());
+
+        // One job for the whole deficit. Cancelled if the merchant unloads first.
+        SearchRequest request = SearchRequest.forEntity(merchant, accessor.getOfferedStructureMaps(), plan.radiusChunks(), plan.deficit());
+        UUID merchantId = merchant.getUuid();
+        MapSearchPool.submit(server, request, SearchPriority.forFill(merchant)).thenAcceptAsync(SearchMetrics.timedApply(results -> {
+            // Look the merchant up again rather than holding on to it while the search runs
+            if (!(serverWorld.getEntity(merchantId) instanceof MerchantEntity loaded)) return;
+            SearchMetrics.PLACEHOLDER.record(System.nanoTime() - placedAt);
+            VillagerDataAccessor loadedAccessor = (VillagerDataAccessor) loaded;
+            try {
+                apply(serverWorld, loaded, loadedAccessor, placeholder, plan, results);
+            } catch (Exception e) {
+                EM4ES.LOGGER.error("Error finalizing map trades", e);
+            } finally {
+                loadedAccessor.setSearching(false);
+            }
+        }), MainThreadApplyQueue.EXECUTOR);
+    }
+
+    private static void apply(ServerWorld world, MerchantEntity merchant, VillagerDataAccessor accessor, TradeOffer placeholder,
+                              StockPlan plan, List<StructureSearchResult> results) {
+        TradeOfferList offers = merchant.getOffers();
+        offers.remove(placeholder);
+
+        ExplorerMapTradeFactory factory = new ExplorerMapTradeFactory(plan.maxUses(), plan.radiusChunks());
+        List<TradeOffer> newTrades = new ArrayList<>(results.size());
+        for (StructureSearchResult result : results) {
+            TradeOffer offer = factory.createTradeFromSearch(world, result, accessor.getOfferedStructureMaps());
+            if (offer != null) newTrades.add(offer);
+        }
+        offers.addAll(newTrades);
+
+        if (plan.level() > accessor.getLastMapLevelGenerated()) {
+            accessor.setLastMapLevelGenerated(plan.level());
+        }
+        // Have the next restock ready before the first map sells out
+        if (!newTrades.isEmpty()) MapPrefetch.refill(merchant, plan.radiusChunks());
+        MainThreadApplyQueue.refreshTradeScreen(merchant);
+        EM4ES.LOGGER.debug("Added {} maps to {}", newTrades.size(), merchant.getUuidAsString());
+    }
+
+    /**
+     * Replaces a map trade that just sold out. Server thread only; does nothing for any other trade.
+     * <p>
+     * A prefetched result is swapped in right away. Otherwise a "Restocking..." placeholder takes the
+     * trade's place while one structure is searched for; if none is found the placeholder is removed.
+     */
+    public static void restock(MerchantEntity merchant, TradeOffer offer) {
+        if (!(merchant.getWorld() instanceof ServerWorld serverWorld) || !(merchant instanceof VillagerDataAccessor accessor)) return;
+        if (!offer.isDisabled() || !offer.getSellItem().isOf(Items.FILLED_MAP) || isPlaceholder(offer)) return;
+
+        int radiusChunks = radiusChunksFor(merchant);
+        if (radiusChunks <= 0) return;
+        TradeOfferList offers = merchant.getOffers();
+        int tradeIndex = offers.indexOf(offer);
+        if (tradeIndex == -1) return;
+
+        ExplorerMapTradeFactory factory = new ExplorerMapTradeFactory(1, radiusChunks);
+
+        // 1. Fast path: a result was prefetched, swap it in right away
+        StructureSearchResult prefetched = MapPrefetch.takeNext(accessor);
+        if (prefetched != null) {
+            TradeOffer newMapTrade = factory.createTradeFromSearch(serverWorld, prefetched, accessor.getOfferedStructureMaps());
+            if (newMapTrade != null) {
+                offers.set(tradeIndex, newMapTrade);
+                MainThreadApplyQueue.refreshTradeScreen(merchant);
+                MapPrefetch.refill(merchant, radiusChunks);
+                return;
+            }
+        }
+
+        // 2. Show a placeholder so the player does not think the trade is just gone
+        TradeOffer placeholder = restockingPlaceholder();
+        offers.set(tradeIndex, placeholder);
+        long placedAt = System.nanoTime();
+        MainThreadApplyQueue.refreshTradeScreen(merchant);
+        EM4ES.LOGGER.debug("Map trade of {} sold out, restocking", merchant.getUuidAsString());
+
+        // 3. Search off the main thread and swap the placeholder for the result.
+        // Cancelled if the merchant unloads first.
+        SearchRequest request = SearchRequest.forEntity(merchant, accessor.getOfferedStructureMaps(), radiusChunks, 1);
+        UUID merchantId = merchant.getUuid();
+        MapSearchPool.submit(serverWorld.getServer(), request, SearchPriority.INTERACTIVE_RESTOCK).thenAcceptAsync(SearchMetrics.timedApply(results -> {
+            if (!(serverWorld.getEntity(merchantId) instanceof MerchantEntity loaded)) return;
+            SearchMetrics.PLACEHOLDER.record(System.nanoTime() - placedAt);
+            TradeOfferList loadedOffers = loaded.getOffers();
+            try {
+                int currentIndex = loadedOffers.indexOf(placeholder);
+                if (currentIndex == -1) return;
+
+                TradeOffer newMapTrade = results.isEmpty() ? null
+                        : factory.createTradeFromSearch(serverWorld, results.get(0), ((VillagerDataAccessor) loaded).getOfferedStructureMaps());
+                if (newMapTrade != null) {
+                    loadedOffers.set(currentIndex, newMapTrade);
+                    // Queue up the next one now that this result is offered
+                    MapPrefetch.refill(loaded, radiusChunks);
+                } else {
+                    // Nothing to offer: drop the placeholder rather than leave a dead trade on the list
+                    loadedOffers.remove(currentIndex);
+                }
+                MainThreadApplyQueue.refreshTradeScreen(loaded);
+                EM4ES.LOGGER.debug("Restock of {} {}", loaded.getUuidAsString(), newMapTrade != null ? "succeeded" : "found nothing");
+            } catch (Exception e) {
+                EM4ES.LOGGER.error("Error restocking map trade", e);
+            }
+        }), MainThreadApplyQueue.EXECUTOR);
+    }
+
+    @Nullable
+    private static StockPlan planFor(MerchantEntity merchant, VillagerDataAccessor accessor) {
+        int radiusChunks = radiusChunksFor(merchant);
+        if (radiusChunks <= 0) return null;
+
+        EM4ESConfig config = EM4ES.config();
+        int current = countMapTrades(merchant.getOffers());
+        if (merchant instanceof WanderingTraderEntity) {
+            return new StockPlan(config.wanderingTraderMapCount - current, radiusChunks, 1, 0);
+        }
+
+        int level = ((VillagerEntity) merchant).getVillagerData().getLevel();
+        int required = 0;
+        for (int l = 1; l <= level; l++) {
+            required += config.mapCountForLevel(l);
+        }
+        int deficit = required - current;
+        // A level-up always brings that level's maps, even if old ones are still on offer
+        if (level > accessor.getLastMapLevelGenerated()) {
+            deficit = Math.max(deficit, config.mapCountForLevel(level));
+        }
+        return new StockPlan(deficit, radiusChunks, config.maxUsesForLevel(level), level);
+    }
+
+    /**
+     * The search radius for this merchant's maps in chunks, or 0 if it does not sell maps.
+     */
+    public static int radiusChunksFor(MerchantEntity merchant) {
+        if (merchant instanceof WanderingTraderEntity) {
+            return Math.max(1, EM4ES.config().wanderingTraderSearchRadius / 16);
+        }
+        if (merchant instanceof VillagerEntity villager && villager.getVillagerData().getProfession() == VillagerProfession.CARTOGRAPHER) {
+            return Math.max(1, EM4ES.config().searchRadiusForLevel(villager.getVillagerData().getLevel()) / 16);
+        }
+        return 0;
+    }
+
+    public static boolean isPlaceholder(TradeOffer offer) {
+        ItemStack sell = offer.getSellItem();
+        NbtComponent customData = sell.get(DataComponentTypes.CUSTOM_DATA);
+        if (customData != null && customData.contains(PLACEHOLDER_KEY)) return true;
+
+        // Placeholders from before they were tagged: a disabled, zero-use trade for a named clock or blank map
+        if (offer.getMaxUses() != 0 || !sell.contains(DataComponentTypes.CUSTOM_NAME)) return false;
+        if (sell.isOf(Items.CLOCK)) return true;
+        return (sell.isOf(Items.MAP) || sell.isOf(Items.FILLED_MAP)) && !sell.contains(DataComponentTypes.MAP_ID)
+                && (customData == null || !customData.contains(LazyExplorerMap.NBT_KEY));
+    }
+
+    /**
+     * Removes placeholders a merchant was saved with. Nothing is searching for them any more after a reload.
+     *
+     * @return how many were removed
+     */
+    public static int stripStalePlaceholders(TradeOfferList offers) {
+        int before = offers.size();
+        offers.removeIf(MapStockEngine::isPlaceholder);
+        return before - offers.size();
+    }
+
+    public static TradeOffer searchingPlaceholder() {
+        return placeholder(Items.MAP, new TradedItem(Items.PAPER), Text.literal("Map search in progress...").formatted(Formatting.GOLD));
+    }
+
+    private static TradeOffer restockingPlaceholder() {
+        return placeholder(Items.CLOCK, new TradedItem(Items.BAMBOO, 64), Text.literal("Restocking...").formatted(Formatting.YELLOW));
+    }
+
+    private static TradeOffer placeholder(Item icon, TradedItem cost, Text name) {
+        ItemStack stack = new ItemStack(icon);
+        stack.set(DataComponentTypes.CUSTOM_NAME, name);
+        NbtComponent.set(DataComponentTypes.CUSTOM_DATA, stack, nbt -> nbt.putBoolean(PLACEHOLDER_KEY, true));
+        TradeOffer offer = new TradeOffer(cost, Optional.empty(), stack, 0, 0, 0.0f);
+        offer.disable();
+        return offer;
+    }
+
+    private static int countMapTrades(TradeOfferList offers) {
+        int count = 0;
+        for (TradeOffer offer : offers) {
+            if (offer.getSellItem().isOf(Items.FILLED_MAP) && !isPlaceholder(offer)) count++;
+        }
+        return count;
+    }
+}
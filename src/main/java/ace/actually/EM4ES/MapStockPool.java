@@ -0,0 +1,101 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Search results found ahead of time, waiting for a merchant near them to need a map.
+ * <p>
+ * Stock is kept per 128-block area and filled by {@link MapPreWarmer}. A taker gets only results within
+ * its own radius of its own origin that it does not already offer, and each result is handed out once.
+ */
+public final class MapStockPool {
+
+    private static final int REGION_SHIFT = 7;
+    private static final int MAX_AREAS = 512;
+
+    private record Area(RegistryKey<World> dimension, int regionX, int regionZ) {
+        static Area of(RegistryKey<World> dimension, BlockPos pos) {
+            return new Area(dimension, pos.getX() >> REGION_SHIFT, pos.getZ() >> REGION_SHIFT);
+        }
+    }
+
+    private static final LinkedHashMap<Area, List<StructureSearchResult>> STOCK = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Area, List<StructureSearchResult>> eldest) {
+            return size() > MAX_AREAS;
+        }
+    };
+
+    private MapStockPool() {}
+
+    /**
+     * Removes and returns up to {@code request.count()} stocked results with distinct IDs that the request can use.
+     */
+    public static synchronized List<StructureSearchResult> take(SearchRequest request) {
+        List<StructureSearchResult> stock = STOCK.get(Area.of(request.dimension(), request.origin()));
+        if (stock == null || stock.isEmpty()) return List.of();
+
+        long maxDistanceSq = (long) request.radiusChunks() * 16 * request.radiusChunks() * 16;
+        List<StructureSearchResult> taken = new ArrayList<>(Math.min(stock.size(), request.count()));
+        Set<Identifier> takenIds = new HashSet<>();
+        Iterator<StructureSearchResult> iterator = stock.iterator();
+        while (iterator.hasNext() && taken.size() < request.count()) {
+            StructureSearchResult result = iterator.next();
+            if (request.skipIds().contains(result.id()) || takenIds.contains(result.id())) continue;
+            if (horizontalDistanceSq(result.pos(), request.origin()) > maxDistanceSq) continue;
+
+            iterator.remove();
+            taken.add(result);
+            takenIds.add(result.id());
+        }
+        return taken;
+    }
+
+    /**
+     * Adds results found around {@code origin}, ignoring structures the area already has in stock.
+     */
+    public static synchronized void offer(RegistryKey<World> dimension, BlockPos origin, List<StructureSearchResult> results) {
+        if (results.isEmpty()) return;
+
+        List<StructureSearchResult> stock = STOCK.computeIfAbsent(Area.of(dimension, origin), area -> new ArrayList<>());
+        for (StructureSearchResult result : results) {
+            if (stock.size() >= Math.max(1, EM4ES.config().prewarmStockPerArea)) break;
+            if (stock.stream().noneMatch(existing -> existing.id().equals(result.id()))) stock.add(result);
+        }
+    }
+
+    /**
+     * IDs currently stocked for the area around {@code origin}.
+     */
+    public static synchronized Set<Identifier> stockedIds(RegistryKey<World> dimension, BlockPos origin) {
+        List<StructureSearchResult> stock = STOCK.get(Area.of(dimension, origin));
+        if (stock == null) return Set.of();
+
+        Set<Identifier> ids = new HashSet<>();
+        for (StructureSearchResult result : stock) {
+            ids.add(result.id());
+        }
+        return ids;
+    }
+
+    public static synchronized void clear() {
+        STOCK.clear();
+    }
+
+    private static long horizontalDistanceSq(BlockPos a, BlockPos b) {
+        long dx = a.getX() - b.getX();
+        long dz = a.getZ() - b.getZ();
+        return dx * dx + dz * dz;
+    }
+}
@@ -0,0 +1,167 @@
+package ace.actually.EM4ES;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes {@link SearchMetrics} while the server runs: always as a JMX MBean, and, when
+ * {@link EM4ESConfig#metricsFileIntervalSeconds} is above zero, as a Prometheus text file in the config
+ * directory for node_exporter's textfile collector or anything else that can scrape a file.
+ */
+public final class MetricsExporter implements SearchMetricsMXBean {
+
+    private static final String OBJECT_NAME = "ace.actually.em4es:type=SearchMetrics";
+    private static final Path PROMETHEUS_FILE = Path.of("./config/EM4ES/metrics.prom");
+
+    private static ScheduledExecutorService fileWriter;
+
+    private MetricsExporter() {}
+
+    public static synchronized void start() {
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!mbeans.isRegistered(name)) mbeans.registerMBean(new MetricsExporter(), name);
+        } catch (Exception e) {
+            EM4ES.LOGGER.warn("Could not register the EM4ES metrics MBean", e);
+        }
+
+        int interval = EM4ES.config().metricsFileIntervalSeconds;
+        if (interval > 0 && fileWriter == null) {
+            fileWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "EM4ES-Metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            fileWriter.scheduleAtFixedRate(MetricsExporter::writePrometheusFile,
+                    interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public static synchronized void stop() {
+        if (fileWriter != null) {
+            fileWriter.shutdownNow();
+            fileWriter = null;
+        }
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeans.isRegistered(name)) mbeans.unregisterMBean(name);
+        } catch (Exception e) {
+            EM4ES.LOGGER.warn("Could not unregister the EM4ES metrics MBean", e);
+        }
+    }
+
+    private static void writePrometheusFile() {
+        try {
+            // Write to a temporary file and move it so a scraper never reads half a file
+            Path temp = PROMETHEUS_FILE.resolveSibling(PROMETHEUS_FILE.getFileName() + ".tmp");
+            Files.createDirectories(PROMETHEUS_FILE.getParent());
+            Files.writeString(temp, prometheusText(), StandardCharsets.UTF_8);
+            Files.move(temp, PROMETHEUS_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            EM4ES.LOGGER.warn("Could not write EM4ES metrics to {}", PROMETHEUS_FILE, e);
+        }
+    }
+
+    static String prometheusText() {
+        StringBuilder out = new StringBuilder(2048);
+        gauge(out, "em4es_search_queue_depth", "Search jobs waiting for a worker", MapSearchPool.queueDepth());
+        gauge(out, "em4es_search_active_jobs", "Search jobs running right now", MapSearchPool.activeJobs());
+        gauge(out, "em4es_apply_queue_depth", "Finished searches waiting for main-thread time", MainThreadApplyQueue.pending());
+        gauge(out, "em4es_decode_queue_depth", "Unidentified maps waiting to be deciphered", DecodeQueue.waiting());
+
+        summary(out, "em4es_search_seconds", "Search job run time on a worker", SearchMetrics.SEARCH);
+        summary(out, "em4es_search_queue_wait_seconds", "Time a search job waited in the queue", SearchMetrics.QUEUE_WAIT);
+        summary(out, "em4es_apply_seconds", "Main-thread time applying search results", SearchMetrics.APPLY);
+        summary(out, "em4es_trade_build_seconds", "Main-thread time building one map trade", SearchMetrics.TRADE_BUILD);
+        summary(out, "em4es_placeholder_seconds", "Time from placeholder shown to map delivered", SearchMetrics.PLACEHOLDER);
+        summary(out, "em4es_preview_render_seconds", "Worker time rendering one map preview", SearchMetrics.PREVIEW_RENDER);
+        summary(out, "em4es_tick_seconds", "Server tick time", SearchMetrics.TICK);
+
+        counter(out, "em4es_locate_candidates_total", "Candidate structures passed to the locate engine", SearchMetrics.LOCATE_CANDIDATES.sum());
+        counter(out, "em4es_structures_found_total", "Candidates found within the search radius", SearchMetrics.STRUCTURES_FOUND.sum());
+        counter(out, "em4es_structures_absent_total", "Candidates proven absent from the search radius", SearchMetrics.STRUCTURES_ABSENT.sum());
+        counter(out, "em4es_index_hits_total", "Results served from the structure index", SearchMetrics.INDEX_HITS.sum());
+        counter(out, "em4es_stock_hits_total", "Results served from the pre-warmed stock", SearchMetrics.STOCK_HITS.sum());
+        counter(out, "em4es_coalesced_requests_total", "Requests that joined an identical running search", SearchMetrics.COALESCED.sum());
+        counter(out, "em4es_dropped_jobs_total", "Searches dropped because the queue was full", SearchMetrics.DROPPED.sum());
+        counter(out, "em4es_cancelled_requests_total", "Requests cancelled because their merchant or player went away", SearchMetrics.CANCELLED.sum());
+        counter(out, "em4es_maps_delivered_total", "Map trades and decoded maps handed out", SearchMetrics.MAPS_DELIVERED.sum());
+        counter(out, "em4es_maps_materialized_total", "Maps that reached a player and were given a map ID", SearchMetrics.MAPS_MATERIALIZED.sum());
+        counter(out, "em4es_maps_shared_total", "Maps that reused the ID of an identical map", SearchMetrics.MAPS_SHARED.sum());
+        counter(out, "em4es_decodes_rejected_total", "Unidentified map clicks refused by the decode limits", SearchMetrics.DECODES_REJECTED.sum());
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        header(out, name, help, "summary");
+        out.append(name).append("{quantile=\"0.5\"} ").append(format(snapshot.p50Ms() / 1000.0)).append('\n');
+        out.append(name).append("{quantile=\"0.99\"} ").append(format(snapshot.p99Ms() / 1000.0)).append('\n');
+        out.append(name).append("_sum ").append(format(snapshot.totalMs() / 1000.0)).append('\n');
+        out.append(name).append("_count ").append(snapshot.count()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    // --- SearchMetricsMXBean ---
+
+    @Override public int getQueueDepth() { return MapSearchPool.queueDepth(); }
+    @Override public int getActiveJobs() { return MapSearchPool.activeJobs(); }
+    @Override public int getApplyQueueDepth() { return MainThreadApplyQueue.pending(); }
+    @Override public int getDecodeQueueDepth() { return DecodeQueue.waiting(); }
+    @Override public long getSearchCount() { return SearchMetrics.SEARCH.snapshot().count(); }
+    @Override public double getSearchP50Ms() { return SearchMetrics.SEARCH.snapshot().p50Ms(); }
+    @Override public double getSearchP99Ms() { return SearchMetrics.SEARCH.snapshot().p99Ms(); }
+    @Override public double getQueueWaitP99Ms() { return SearchMetrics.QUEUE_WAIT.snapshot().p99Ms(); }
+    @Override public double getApplyP99Ms() { return SearchMetrics.APPLY.snapshot().p99Ms(); }
+    @Override public double getTradeBuildP99Ms() { return SearchMetrics.TRADE_BUILD.snapshot().p99Ms(); }
+    @Override public double getPlaceholderP99Ms() { return SearchMetrics.PLACEHOLDER.snapshot().p99Ms(); }
+    @Override public long getStructuresFound() { return SearchMetrics.STRUCTURES_FOUND.sum(); }
+    @Override public long getStructuresAbsent() { return SearchMetrics.STRUCTURES_ABSENT.sum(); }
+    @Override public long getIndexHits() { return SearchMetrics.INDEX_HITS.sum(); }
+    @Override public long getStockHits() { return SearchMetrics.STOCK_HITS.sum(); }
+    @Override public long getCoalescedRequests() { return SearchMetrics.COALESCED.sum(); }
+    @Override public long getDroppedJobs() { return SearchMetrics.DROPPED.sum(); }
+    @Override public long getCancelledRequests() { return SearchMetrics.CANCELLED.sum(); }
+    @Override public long getMapsDelivered() { return SearchMetrics.MAPS_DELIVERED.sum(); }
+
+    @Override
+    public double getLocateCallsPerMap() {
+        long maps = SearchMetrics.MAPS_DELIVERED.sum();
+        return maps == 0 ? 0 : (double) SearchMetrics.LOCATE_CANDIDATES.sum() / maps;
+    }
+
+    @Override
+    public void reset() {
+        SearchMetrics.reset();
+    }
+}
@@ -0,0 +1,84 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers structures that a completed search proved are not within a radius of an area,
+ * so the next restock in the same village does not spend sample slots or search time on them again.
+ * <p>
+ * Origins are bucketed into 64-block cells. Since a query may sit anywhere in the recorded origin's cell,
+ * the radius an entry vouches for is the searched radius less the cell diagonal, and an entry only answers
+ * queries whose whole search disk lies inside that. The cache is bounded by
+ * {@link EM4ESConfig#negativeCacheMaxEntries} (least recently used entries go first) and entries expire
+ * after {@link EM4ESConfig#negativeCacheTtlSeconds}.
+ */
+public final class NegativeSearchCache {
+
+    private static final int CELL_SHIFT = 6;
+    // Farthest two origins in the same cell can be apart, rounded up
+    private static final int CELL_DIAGONAL = (int) Math.ceil((1 << CELL_SHIFT) * Math.sqrt(2));
+
+    private record Key(RegistryKey<World> dimension, Identifier structure, int cellX, int cellZ) {}
+
+    /**
+     * @param coveredRadius blocks around any origin in the cell known to hold no such structure
+     */
+    private record Entry(int coveredRadius, long recordedAt) {}
+
+    private static final LinkedHashMap<Key, Entry> ENTRIES = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > EM4ES.config().negativeCacheMaxEntries;
+        }
+    };
+
+    private NegativeSearchCache() {}
+
+    public static synchronized boolean isKnownAbsent(RegistryKey<World> dimension, Identifier structure, BlockPos origin, int radiusChunks) {
+        if (EM4ES.config().negativeCacheMaxEntries <= 0) return false;
+
+        Key key = key(dimension, structure, origin);
+        Entry entry = ENTRIES.get(key);
+        if (entry == null) return false;
+
+        if (isExpired(entry, System.currentTimeMillis())) {
+            ENTRIES.remove(key);
+            return false;
+        }
+        return radiusChunks * 16 <= entry.coveredRadius();
+    }
+
+    public static synchronized void recordAbsent(RegistryKey<World> dimension, Set<Identifier> structures, BlockPos origin, int radiusChunks) {
+        if (EM4ES.config().negativeCacheMaxEntries <= 0 || structures.isEmpty()) return;
+
+        int coveredRadius = radiusChunks * 16 - CELL_DIAGONAL;
+        if (coveredRadius <= 0) return;
+
+        long now = System.currentTimeMillis();
+        Entry recorded = new Entry(coveredRadius, now);
+        for (Identifier structure : structures) {
+            // A wider search proven earlier in this cell still answers more queries than a narrower new one
+            ENTRIES.merge(key(dimension, structure, origin), recorded,
+                    (old, fresh) -> old.coveredRadius() > fresh.coveredRadius() && !isExpired(old, now) ? old : fresh);
+        }
+    }
+
+    public static synchronized void clear() {
+        ENTRIES.clear();
+    }
+
+    private static boolean isExpired(Entry entry, long now) {
+        return now - entry.recordedAt() > EM4ES.config().negativeCacheTtlSeconds * 1000L;
+    }
+
+    private static Key key(RegistryKey<World> dimension, Identifier structure, BlockPos origin) {
+        return new Key(dimension, structure, origin.getX() >> CELL_SHIFT, origin.getZ() >> CELL_SHIFT);
+    }
+}
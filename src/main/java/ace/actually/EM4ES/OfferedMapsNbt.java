@@ -0,0 +1,69 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.util.Identifier;
+
+/**
+ * Saves and loads the structures a merchant already sells maps for. Shared by the villager and
+ * wandering trader mixins.
+ * <p>
+ * The set is saved as an int array: the {@link StructureIndexTable} fingerprint followed by the bitset
+ * words, low half first. Merchants saved before that, with a list of identifier strings under
+ * {@link #LEGACY_KEY}, are read once and written back in the new format.
+ */
+public final class OfferedMapsNbt {
+
+    public static final String NBT_KEY = "EM4ES_Offered";
+    public static final String LEGACY_KEY = "EM4ES_OfferedMaps";
+
+    private OfferedMapsNbt() {}
+
+    public static void write(OfferedStructureSet offered, NbtCompound nbt) {
+        long[] words = offered.words();
+        int used = words.length;
+        while (used > 0 && words[used - 1] == 0) used--;
+        if (used == 0) return;
+
+        int[] packed = new int[1 + used * 2];
+        packed[0] = StructureIndexTable.fingerprint();
+        for (int i = 0; i < used; i++) {
+            packed[1 + i * 2] = (int) words[i];
+            packed[2 + i * 2] = (int) (words[i] >>> 32);
+        }
+        nbt.putIntArray(NBT_KEY, packed);
+    }
+
+    /**
+     * Replaces the contents of {@code offered} with what is saved in {@code nbt}, if anything is.
+     */
+    public static void read(OfferedStructureSet offered, NbtCompound nbt) {
+        if (nbt.contains(NBT_KEY, NbtElement.INT_ARRAY_TYPE)) {
+            int[] packed = nbt.getIntArray(NBT_KEY);
+            if (packed.length == 0 || packed[0] != StructureIndexTable.fingerprint()) {
+                // Saved against another world's palette, the indices mean nothing here
+                EM4ES.LOGGER.debug("Dropping offered maps saved with a different structure palette");
+                offered.clear();
+                return;
+            }
+            long[] words = new long[(packed.length - 1) / 2];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = (packed[1 + i * 2] & 0xFFFFFFFFL) | ((long) packed[2 + i * 2] << 32);
+            }
+            offered.setWords(words);
+            return;
+        }
+
+        if (!nbt.contains(LEGACY_KEY, NbtElement.LIST_TYPE)) return;
+
+        NbtList offeredList = nbt.getList(LEGACY_KEY, NbtElement.STRING_TYPE);
+        offered.clear();
+        for (NbtElement element : offeredList) {
+            Identifier id = Identifier.tryParse(element.asString());
+            if (id != null) {
+                offered.add(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.util.Identifier;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The structures a merchant already sells maps for, as a bitset over {@link StructureIndexTable} indices.
+ * <p>
+ * The words are copy-on-write: every change swaps in a new array with a CAS, and arrays are never
+ * modified once published. Reads and iteration therefore need no lock and always see one consistent
+ * version, whichever thread is writing, and {@link #snapshot} is just the current array.
+ * A merchant with 20 maps costs a single {@code long[1]} instead of a hash set of identifiers.
+ */
+public final class OfferedStructureSet extends AbstractSet<Identifier> {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final AtomicReference<long[]> words;
+
+    public OfferedStructureSet() {
+        this(EMPTY);
+    }
+
+    private OfferedStructureSet(long[] words) {
+        this.words = new AtomicReference<>(words);
+    }
+
+    /**
+     * An unmodifiable view of the contents as they are now. Shares the current words instead of copying them.
+     */
+    public Set<Identifier> snapshot() {
+        return Collections.unmodifiableSet(new OfferedStructureSet(words.get()));
+    }
+
+    /**
+     * The raw words, for saving. Must not be modified.
+     */
+    long[] words() {
+        return words.get();
+    }
+
+    /**
+     * Replaces the contents with saved words. The array is taken over, not copied.
+     */
+    void setWords(long[] saved) {
+        words.set(saved);
+    }
+
+    @Override
+    public boolean add(Identifier id) {
+        int index = StructureIndexTable.indexOf(id);
+        int word = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long[] current = words.get();
+            if (word < current.length && (current[word] & bit) != 0) return false;
+
+            long[] next = Arrays.copyOf(current, Math.max(current.length, word + 1));
+            next[word] |= bit;
+            if (words.compareAndSet(current, next)) return true;
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Identifier id)) return false;
+        int index = StructureIndexTable.find(id);
+        if (index < 0) return false;
+
+        int word = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long[] current = words.get();
+            if (word >= current.length || (current[word] & bit) == 0) return false;
+
+            long[] next = current.clone();
+            next[word] &= ~bit;
+            if (words.compareAndSet(current, next)) return true;
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Identifier id)) return false;
+        int index = StructureIndexTable.find(id);
+        if (index < 0) return false;
+
+        long[] current = words.get();
+        int word = index >>> 6;
+        return word < current.length && (current[word] & (1L << index)) != 0;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (long word : words.get()) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (long word : words.get()) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        words.set(EMPTY);
+    }
+
+    @Override
+    public Iterator<Identifier> iterator() {
+        long[] snapshot = words.get();
+        return new Iterator<>() {
+            private int next = nextSetBit(snapshot, 0);
+            private Identifier last;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Identifier next() {
+                if (next < 0) throw new NoSuchElementException();
+                last = StructureIndexTable.idAt(next);
+                next = nextSetBit(snapshot, next + 1);
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) throw new IllegalStateException();
+                OfferedStructureSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private static int nextSetBit(long[] words, int from) {
+        int word = from >>> 6;
+        if (word >= words.length) return -1;
+
+        long bits = words[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word >= words.length) return -1;
+            bits = words[word];
+        }
+    }
+}
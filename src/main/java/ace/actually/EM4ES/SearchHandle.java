@@ -0,0 +1,47 @@
+package ace.actually.EM4ES;
+
+/**
+ * Cooperative stop signal for a running search.
+ * <p>
+ * The locate engine polls {@link #shouldStop()} between placement cells, so a search ends shortly after
+ * it is cancelled or its time budget runs out instead of only between candidates.
+ */
+public final class SearchHandle {
+
+    private volatile boolean cancelled;
+    private volatile long deadline;
+
+    private SearchHandle(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * A handle whose clock starts now.
+     */
+    public static SearchHandle withBudget(long budgetMs) {
+        return new SearchHandle(System.currentTimeMillis() + budgetMs);
+    }
+
+    /**
+     * A handle whose clock only starts with {@link #startClock(long)}, for jobs that may sit in a queue first.
+     */
+    public static SearchHandle unstarted() {
+        return new SearchHandle(Long.MAX_VALUE);
+    }
+
+    public void startClock(long budgetMs) {
+        this.deadline = System.currentTimeMillis() + budgetMs;
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean shouldStop() {
+        return cancelled || System.currentTimeMillis() > deadline;
+    }
+}
@@ -0,0 +1,97 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Process-wide timings and counters for the map pipeline, for load tests and monitoring
+ * (see {@link MetricsExporter}).
+ * <ul>
+ *     <li>{@link #TICK}: whole server ticks, measured between the start and end tick events</li>
+ *     <li>{@link #SEARCH}: a search job on a worker thread, from start to finish</li>
+ *     <li>{@link #QUEUE_WAIT}: how long a job sat in the queue before a worker took it</li>
+ *     <li>{@link #TRADE_BUILD}: main-thread time in {@code ExplorerMapTradeFactory.createTradeFromSearch}</li>
+ *     <li>{@link #PLACEHOLDER}: from a placeholder trade or item being handed out to it being resolved</li>
+ *     <li>{@link #APPLY}: main-thread callbacks that apply search results to merchants and players</li>
+ *     <li>{@link #PREVIEW_RENDER}: rendering one map preview on a worker thread</li>
+ * </ul>
+ */
+public final class SearchMetrics {
+
+    public static final LatencyHistogram TICK = new LatencyHistogram();
+    public static final LatencyHistogram SEARCH = new LatencyHistogram();
+    public static final LatencyHistogram QUEUE_WAIT = new LatencyHistogram();
+    public static final LatencyHistogram TRADE_BUILD = new LatencyHistogram();
+    public static final LatencyHistogram PLACEHOLDER = new LatencyHistogram();
+    public static final LatencyHistogram APPLY = new LatencyHistogram();
+    public static final LatencyHistogram PREVIEW_RENDER = new LatencyHistogram();
+
+    /** Candidate structures handed to the locate engine, the equivalent of vanilla locateStructure calls. */
+    public static final LongAdder LOCATE_CANDIDATES = new LongAdder();
+    public static final LongAdder STRUCTURES_FOUND = new LongAdder();
+    public static final LongAdder STRUCTURES_ABSENT = new LongAdder();
+    public static final LongAdder INDEX_HITS = new LongAdder();
+    public static final LongAdder STOCK_HITS = new LongAdder();
+    public static final LongAdder COALESCED = new LongAdder();
+    public static final LongAdder DROPPED = new LongAdder();
+    public static final LongAdder CANCELLED = new LongAdder();
+    public static final LongAdder MAPS_DELIVERED = new LongAdder();
+    /** Offered or decoded maps that reached a player and got a real map ID. */
+    public static final LongAdder MAPS_MATERIALIZED = new LongAdder();
+    /** Maps that reused the ID of an identical map instead of allocating one. */
+    public static final LongAdder MAPS_SHARED = new LongAdder();
+    /** Unidentified map clicks turned away by the decode limits. */
+    public static final LongAdder DECODES_REJECTED = new LongAdder();
+
+    private static long tickStartNanos;
+    private static volatile long lastTickNanos;
+
+    private SearchMetrics() {}
+
+    public static void onTickStart(MinecraftServer server) {
+        tickStartNanos = System.nanoTime();
+    }
+
+    public static void onTickEnd(MinecraftServer server) {
+        lastTickNanos = System.nanoTime() - tickStartNanos;
+        TICK.record(lastTickNanos);
+    }
+
+    /**
+     * Length of the tick that just ended (or is ending, when called from an end-of-tick handler).
+     */
+    public static long lastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * Wraps a main-thread result callback so its run time lands in {@link #APPLY}.
+     */
+    public static <T> Consumer<T> timedApply(Consumer<T> callback) {
+        return value -> {
+            long started = System.nanoTime();
+            try {
+                callback.accept(value);
+            } finally {
+                APPLY.record(System.nanoTime() - started);
+            }
+        };
+    }
+
+    public static void reset() {
+        TICK.reset();
+        SEARCH.reset();
+        QUEUE_WAIT.reset();
+        TRADE_BUILD.reset();
+        PLACEHOLDER.reset();
+        APPLY.reset();
+        PREVIEW_RENDER.reset();
+        for (LongAdder counter : new LongAdder[]{LOCATE_CANDIDATES, STRUCTURES_FOUND, STRUCTURES_ABSENT, INDEX_HITS,
+                STOCK_HITS, COALESCED, DROPPED, CANCELLED, MAPS_DELIVERED, MAPS_MATERIALIZED, MAPS_SHARED,
+                DECODES_REJECTED}) {
+            counter.reset();
+        }
+    }
+}
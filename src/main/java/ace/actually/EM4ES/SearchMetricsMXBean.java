@@ -0,0 +1,51 @@
+package ace.actually.EM4ES;
+
+/**
+ * JMX view of {@link SearchMetrics}, registered as {@code ace.actually.em4es:type=SearchMetrics}.
+ * Times are in milliseconds.
+ */
+public interface SearchMetricsMXBean {
+
+    int getQueueDepth();
+
+    int getActiveJobs();
+
+    int getApplyQueueDepth();
+
+    int getDecodeQueueDepth();
+
+    long getSearchCount();
+
+    double getSearchP50Ms();
+
+    double getSearchP99Ms();
+
+    double getQueueWaitP99Ms();
+
+    double getApplyP99Ms();
+
+    double getTradeBuildP99Ms();
+
+    double getPlaceholderP99Ms();
+
+    long getStructuresFound();
+
+    long getStructuresAbsent();
+
+    long getIndexHits();
+
+    long getStockHits();
+
+    long getCoalescedRequests();
+
+    long getDroppedJobs();
+
+    long getCancelledRequests();
+
+    long getMapsDelivered();
+
+    /** Candidates passed to the locate engine per map delivered. */
+    double getLocateCallsPerMap();
+
+    void reset();
+}
@@ -0,0 +1,28 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.entity.passive.MerchantEntity;
+
+/**
+ * Scheduling classes for search jobs, most urgent first.
+ * <p>
+ * A queued job is ordered by its submit time plus {@code ordinal() *} {@link EM4ESConfig#searchAgingMs}, so a new
+ * restock overtakes background work that has been waiting for less than three aging steps, but
+ * background work is never starved forever.
+ */
+public enum SearchPriority {
+    /** A player is looking at a "Restocking..." clock. */
+    INTERACTIVE_RESTOCK,
+    /** A player is waiting on "Deciphering Map...". */
+    UNIDENTIFIED_DECODE,
+    /** A fill for a merchant whose trade screen is currently open. */
+    TRADE_UI_OPEN,
+    /** Fills nobody is watching yet. */
+    BACKGROUND_FILL;
+
+    /**
+     * Priority for a stock fill: bumped up if a player is trading with the merchant right now.
+     */
+    public static SearchPriority forFill(MerchantEntity merchant) {
+        return merchant.getCustomer() != null ? TRADE_UI_OPEN : BACKGROUND_FILL;
+    }
+}
@@ -0,0 +1,101 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-dimension, per-structure search cost profile behind {@code /em4es stats}.
+ * <p>
+ * Locate times go into a {@link LatencyHistogram}. With {@link EM4ESConfig#quarantineEnabled}, a structure that misses
+ * {@link EM4ESConfig#quarantineMisses} searches in a row in a dimension is left out of searches there for
+ * {@link EM4ESConfig#quarantineCooldownSeconds}. Nothing is written to the config file.
+ */
+public final class SearchProfile {
+
+    private record Key(RegistryKey<World> dimension, Identifier structure) {}
+
+    /**
+     * A point-in-time copy of one structure's numbers, for reporting.
+     */
+    public record Entry(RegistryKey<World> dimension, Identifier structure, long attempts, long hits,
+                        double p50Ms, double p99Ms, double totalMs, boolean quarantined) {}
+
+    private static final class Profile {
+        private long attempts;
+        private long hits;
+        private int missStreak;
+        private long quarantinedUntil;
+        private final LatencyHistogram times = new LatencyHistogram();
+
+        synchronized void record(boolean hit, long nanos) {
+            attempts++;
+            EM4ESConfig config = EM4ES.config();
+            if (hit) {
+                hits++;
+                missStreak = 0;
+            } else if (++missStreak >= config.quarantineMisses && config.quarantineEnabled) {
+                quarantinedUntil = System.currentTimeMillis() + config.quarantineCooldownSeconds * 1000L;
+                missStreak = 0;
+            }
+            if (nanos > 0) times.record(nanos);
+        }
+
+        synchronized boolean isQuarantined() {
+            return quarantinedUntil > System.currentTimeMillis();
+        }
+
+        synchronized Entry snapshot(Key key) {
+            LatencyHistogram.Snapshot timing = times.snapshot();
+            return new Entry(key.dimension(), key.structure(), attempts, hits, timing.p50Ms(), timing.p99Ms(), timing.totalMs(), isQuarantined());
+        }
+    }
+
+    private static final Map<Key, Profile> PROFILES = new ConcurrentHashMap<>();
+
+    private SearchProfile() {}
+
+    /**
+     * Records the outcome of a finished locate pass. Structures the pass did not finish are skipped.
+     */
+    public static void record(RegistryKey<World> dimension, StructureLocateEngine.Result result) {
+        for (Identifier id : result.found()) {
+            profile(dimension, id).record(true, result.walkNanos().getOrDefault(id, 0L));
+        }
+        for (Identifier id : result.absent()) {
+            profile(dimension, id).record(false, result.walkNanos().getOrDefault(id, 0L));
+        }
+    }
+
+    public static boolean isQuarantined(RegistryKey<World> dimension, Identifier structure) {
+        if (!EM4ES.config().quarantineEnabled) return false;
+        Profile profile = PROFILES.get(new Key(dimension, structure));
+        return profile != null && profile.isQuarantined();
+    }
+
+    /**
+     * Profiles for one dimension, most total locate time first.
+     */
+    public static List<Entry> snapshot(RegistryKey<World> dimension) {
+        List<Entry> entries = new ArrayList<>();
+        PROFILES.forEach((key, profile) -> {
+            if (key.dimension().equals(dimension)) entries.add(profile.snapshot(key));
+        });
+        entries.sort(Comparator.comparingDouble(Entry::totalMs).reversed());
+        return entries;
+    }
+
+    public static void clear() {
+        PROFILES.clear();
+    }
+
+    private static Profile profile(RegistryKey<World> dimension, Identifier structure) {
+        return PROFILES.computeIfAbsent(new Key(dimension, structure), key -> new Profile());
+    }
+}
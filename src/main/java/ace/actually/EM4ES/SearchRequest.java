@@ -0,0 +1,41 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Everything a search job needs, captured on the main thread.
+ * Jobs only ever see this snapshot, never the live merchant.
+ *
+ * @param skipIds structures the requester already offers (an immutable snapshot)
+ * @param count   how many distinct structures to find
+ * @param owner   entity the search is for; it is cancelled when that entity goes away
+ */
+public record SearchRequest(RegistryKey<World> dimension, BlockPos origin, int radiusChunks, Set<Identifier> skipIds, int count,
+                            @Nullable UUID owner) {
+
+    public static SearchRequest of(ServerWorld world, BlockPos origin, Set<Identifier> skipIds, int radiusChunks, int count) {
+        return new SearchRequest(world.getRegistryKey(), origin.toImmutable(), radiusChunks, freeze(skipIds), count, null);
+    }
+
+    /**
+     * A search around an entity, cancelled automatically when that entity is unloaded or removed.
+     */
+    public static SearchRequest forEntity(Entity owner, Set<Identifier> skipIds, int radiusChunks, int count) {
+        return new SearchRequest(owner.getWorld().getRegistryKey(), owner.getBlockPos().toImmutable(), radiusChunks,
+                freeze(skipIds), count, owner.getUuid());
+    }
+
+    private static Set<Identifier> freeze(Set<Identifier> skipIds) {
+        // A merchant's offered set hands out its current words without copying
+        return skipIds instanceof OfferedStructureSet offered ? offered.snapshot() : Set.copyOf(skipIds);
+    }
+}
@@ -0,0 +1,70 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.gen.chunk.placement.StructurePlacementCalculator;
+import net.minecraft.world.gen.structure.Structure;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-dimension table of the structures that can actually generate there.
+ * <p>
+ * A structure is feasible in a world when its generator has a placement for it and at least one of its
+ * valid biomes can come out of the world's biome source. Everything else (bastions in the overworld,
+ * almost everything in a void world) would only waste sample slots and locate calls.
+ */
+public final class StructureFeasibility {
+
+    private static final Map<RegistryKey<World>, Set<RegistryKey<Structure>>> FEASIBLE = new ConcurrentHashMap<>();
+
+    private StructureFeasibility() {}
+
+    /**
+     * Rebuilds the table for every loaded world. Called once the server has started.
+     */
+    public static void rebuild(MinecraftServer server) {
+        FEASIBLE.clear();
+        for (ServerWorld world : server.getWorlds()) {
+            Set<RegistryKey<Structure>> feasible = feasibleIn(world);
+            EM4ES.LOGGER.info("{} structures can generate in {}", feasible.size(), world.getRegistryKey().getValue());
+        }
+    }
+
+    /**
+     * Structures that can generate in the given world.
+     */
+    public static Set<RegistryKey<Structure>> feasibleIn(ServerWorld world) {
+        return FEASIBLE.computeIfAbsent(world.getRegistryKey(), key -> compute(world));
+    }
+
+    public static void clear() {
+        FEASIBLE.clear();
+    }
+
+    private static Set<RegistryKey<Structure>> compute(ServerWorld world) {
+        Registry<Structure> registry = world.getRegistryManager().get(RegistryKeys.STRUCTURE);
+        StructurePlacementCalculator calculator = world.getChunkManager().getStructurePlacementCalculator();
+        Set<RegistryEntry<Biome>> possibleBiomes = world.getChunkManager().getChunkGenerator().getBiomeSource().getBiomes();
+
+        Set<RegistryKey<Structure>> feasible = ConcurrentHashMap.newKeySet();
+        registry.streamEntries().forEach(entry -> {
+            try {
+                if (calculator.getPlacements(entry).isEmpty()) return;
+                if (entry.value().getValidBiomes().stream().noneMatch(possibleBiomes::contains)) return;
+                feasible.add(entry.registryKey());
+            } catch (Exception e) {
+                EM4ES.LOGGER.debug("Could not check structure {} for {}", entry.getIdAsString(), world.getRegistryKey().getValue(), e);
+            }
+        });
+        return feasible;
+    }
+}
@@ -0,0 +1,299 @@
+package ace.actually.EM4ES;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Per-dimension index of every structure position EM4ES has located, kept under the world save.
+ * <p>
+ * Layout ({@code <world>/data/em4es/index/<dimension>/}):
+ * <ul>
+ *     <li>{@code structures.txt} - palette, one structure ID per line (line number = palette index)</li>
+ *     <li>{@code r.<x>.<z>.bin} - one shard per 2048x2048 block region: a header (magic, version, seed)
+ *     followed by fixed 12-byte records {@code int x, short y, int z, short paletteIndex}</li>
+ * </ul>
+ * Shards are memory-mapped when the dimension is first queried and new hits are appended to them, so
+ * structures around busy areas are found once and then served without touching the chunk generator.
+ * Only hits confirmed by a structure start are recorded, never predicted ones, since records are served as
+ * they are. A shard written for a different seed or format version is discarded.
+ */
+public final class StructureIndex {
+
+    private static final int MAGIC = 0x454D3449; // "EM4I"
+    // 2: version 1 shards may hold predicted hits that never generated
+    private static final short VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 2 + 8;
+    private static final int RECORD_BYTES = 4 + 2 + 4 + 2;
+    private static final int REGION_SHIFT = 11;
+
+    private static final Map<RegistryKey<World>, StructureIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long seed;
+    private final List<Identifier> palette = new ArrayList<>();
+    private final Map<Identifier, Short> paletteIndex = new HashMap<>();
+    private final Map<Long, Shard> shards = new HashMap<>();
+
+    private StructureIndex(Path directory, long seed) {
+        this.directory = directory;
+        this.seed = seed;
+    }
+
+    public static StructureIndex forWorld(ServerWorld world) {
+        return INDEXES.computeIfAbsent(world.getRegistryKey(), key -> {
+            Identifier dim = key.getValue();
+            Path dir = world.getServer().getSavePath(WorldSavePath.ROOT)
+                    .resolve("data").resolve("em4es").resolve("index")
+                    .resolve(dim.getNamespace() + "_" + dim.getPath().replace('/', '_'));
+            StructureIndex index = new StructureIndex(dir, world.getSeed());
+            index.load();
+            return index;
+        });
+    }
+
+    /**
+     * Closes every open shard. Called when the server stops so the next world starts with a clean slate.
+     */
+    public static void closeAll() {
+        INDEXES.values().forEach(StructureIndex::close);
+        INDEXES.clear();
+    }
+
+    /**
+     * Returns up to {@code count} indexed structures within the radius, nearest first, one per structure ID.
+     *
+     * @param allowed only structures it accepts are considered
+     */
+    public synchronized List<StructureSearchResult> findNearest(BlockPos origin, int radiusChunks, Predicate<Identifier> allowed, int count) {
+        if (count <= 0) return List.of();
+
+        long radius = radiusChunks * 16L;
+        long maxDistanceSq = radius * radius;
+        int minRegionX = (int) ((origin.getX() - radius) >> REGION_SHIFT);
+        int maxRegionX = (int) ((origin.getX() + radius) >> REGION_SHIFT);
+        int minRegionZ = (int) ((origin.getZ() - radius) >> REGION_SHIFT);
+        int maxRegionZ = (int) ((origin.getZ() + radius) >> REGION_SHIFT);
+
+        Map<Identifier, StructureSearchResult> nearest = new HashMap<>();
+        Map<Identifier, Long> nearestDistance = new HashMap<>();
+
+        for (int rx = minRegionX; rx <= maxRegionX; rx++) {
+            for (int rz = minRegionZ; rz <= maxRegionZ; rz++) {
+                Shard shard = shards.get(regionKey(rx, rz));
+                if (shard == null) continue;
+
+                shard.forEach((x, y, z, paletteId) -> {
+                    Identifier id = paletteId < palette.size() ? palette.get(paletteId) : null;
+                    if (id == null || !allowed.test(id)) return;
+
+                    long dx = x - origin.getX();
+                    long dz = z - origin.getZ();
+                    long distanceSq = dx * dx + dz * dz;
+                    if (distanceSq > maxDistanceSq) return;
+
+                    Long best = nearestDistance.get(id);
+                    if (best == null || distanceSq < best) {
+                        nearestDistance.put(id, distanceSq);
+                        nearest.put(id, new StructureSearchResult(new BlockPos(x, y, z), id));
+                    }
+                });
+            }
+        }
+
+        return nearest.values().stream()
+                .sorted(Comparator.comparingLong(result -> nearestDistance.get(result.id())))
+                .limit(count)
+                .toList();
+    }
+
+    /**
+     * Records located structures, which must have been confirmed by a structure start. Positions that are
+     * already indexed are ignored.
+     */
+    public synchronized void add(Collection<StructureSearchResult> results) {
+        for (StructureSearchResult result : results) {
+            try {
+                short paletteId = paletteIdFor(result.id());
+                BlockPos pos = result.pos();
+                long key = regionKey(pos.getX() >> REGION_SHIFT, pos.getZ() >> REGION_SHIFT);
+                Shard shard = shards.get(key);
+                if (shard == null) {
+                    shard = Shard.create(directory.resolve("r." + (pos.getX() >> REGION_SHIFT) + "." + (pos.getZ() >> REGION_SHIFT) + ".bin"), seed);
+                    shards.put(key, shard);
+                }
+                shard.append(pos.getX(), (short) pos.getY(), pos.getZ(), paletteId);
+            } catch (IOException e) {
+                EM4ES.LOGGER.warn("Failed to write structure index entry for {}", result.id(), e);
+            }
+        }
+    }
+
+    private short paletteIdFor(Identifier id) throws IOException {
+        Short existing = paletteIndex.get(id);
+        if (existing != null) return existing;
+
+        short next = (short) palette.size();
+        Files.writeString(directory.resolve("structures.txt"), id + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        palette.add(id);
+        paletteIndex.put(id, next);
+        return next;
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(directory);
+
+            Path palettePath = directory.resolve("structures.txt");
+            if (Files.exists(palettePath)) {
+                for (String line : Files.readAllLines(palettePath, StandardCharsets.UTF_8)) {
+                    Identifier id = Identifier.tryParse(line.trim());
+                    // Keep the line even if it is unparseable so later indexes stay aligned
+                    palette.add(id);
+                    if (id != null) paletteIndex.putIfAbsent(id, (short) (palette.size() - 1));
+                }
+            }
+
+            try (var files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    String[] parts = file.getFileName().toString().split("\\.");
+                    if (parts.length != 4 || !parts[0].equals("r") || !parts[3].equals("bin")) continue;
+                    try {
+                        int rx = Integer.parseInt(parts[1]);
+                        int rz = Integer.parseInt(parts[2]);
+                        Shard shard = Shard.open(file, seed);
+                        if (shard != null) shards.put(regionKey(rx, rz), shard);
+                    } catch (NumberFormatException ignored) {
+                        // Not one of ours
+                    }
+                }
+            }
+            EM4ES.LOGGER.info("Loaded structure index {} ({} regions)", directory.getFileName(), shards.size());
+        } catch (IOException e) {
+            EM4ES.LOGGER.error("Failed to load structure index at {}", directory, e);
+        }
+    }
+
+    private synchronized void close() {
+        for (Shard shard : shards.values()) {
+            shard.close();
+        }
+        shards.clear();
+    }
+
+    private static long regionKey(int rx, int rz) {
+        return ((long) rx << 32) | (rz & 0xFFFFFFFFL);
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(int x, int y, int z, int paletteId);
+    }
+
+    /**
+     * A single region file: the records present at load time stay memory-mapped,
+     * records appended during this session are kept alongside them in memory.
+     * The keys used to skip duplicate appends are only collected once the shard is first written to.
+     */
+    private static final class Shard {
+        private final FileChannel channel;
+        private final MappedByteBuffer mapped;
+        private final int mappedRecords;
+        private final List<int[]> appended = new ArrayList<>();
+        @Nullable
+        private LongOpenHashSet known;
+
+        private Shard(FileChannel channel, @Nullable MappedByteBuffer mapped, int mappedRecords) {
+            this.channel = channel;
+            this.mapped = mapped;
+            this.mappedRecords = mappedRecords;
+        }
+
+        static Shard create(Path path, long seed) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putShort(VERSION).putLong(seed).flip();
+            channel.write(header, 0);
+            return new Shard(channel, null, 0);
+        }
+
+        static Shard open(Path path, long seed) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                channel.close();
+                return create(path, seed);
+            }
+
+            // Check the header before mapping: a file with a live mapping cannot be truncated on every platform
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            int read = channel.read(header, 0);
+            if (read < HEADER_BYTES || header.getInt(0) != MAGIC || header.getShort(4) != VERSION || header.getLong(6) != seed) {
+                // Written for another seed (or an older format) - start over
+                channel.close();
+                return create(path, seed);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // Ignore a torn record at the end of the file, the next append overwrites it
+            int records = (int) ((size - HEADER_BYTES) / RECORD_BYTES);
+            return new Shard(channel, buffer, records);
+        }
+
+        void append(int x, short y, int z, short paletteId) throws IOException {
+            if (known == null) {
+                LongOpenHashSet keys = new LongOpenHashSet(mappedRecords + 16);
+                forEach((rx, ry, rz, rPaletteId) -> keys.add(recordKey(rx, rz, rPaletteId)));
+                known = keys;
+            }
+            if (!known.add(recordKey(x, z, paletteId))) return;
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+            record.putInt(x).putShort(y).putInt(z).putShort(paletteId).flip();
+            long offset = HEADER_BYTES + (long) (mappedRecords + appended.size()) * RECORD_BYTES;
+            channel.write(record, offset);
+            appended.add(new int[]{x, y, z, paletteId});
+        }
+
+        void forEach(RecordVisitor visitor) {
+            for (int i = 0; i < mappedRecords; i++) {
+                int base = HEADER_BYTES + i * RECORD_BYTES;
+                visitor.visit(mapped.getInt(base), mapped.getShort(base + 4), mapped.getInt(base + 6), mapped.getShort(base + 10) & 0xFFFF);
+            }
+            for (int[] record : appended) {
+                visitor.visit(record[0], record[1], record[2], record[3]);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        // Locate positions are chunk aligned, so chunk coordinates plus the palette ID identify a record
+        private static long recordKey(int x, int z, int paletteId) {
+            return (((long) (x >> 4) & 0xFFFFFFL) << 40) | (((long) (z >> 4) & 0xFFFFFFL) << 16) | (paletteId & 0xFFFFL);
+        }
+    }
+}
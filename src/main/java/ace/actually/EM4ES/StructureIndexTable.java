@@ -0,0 +1,129 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtString;
+import net.minecraft.registry.RegistryWrapper;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.PersistentState;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Small, stable integer for every structure ID, used as the bit position in {@link OfferedStructureSet}.
+ * <p>
+ * Raw registry IDs move around whenever a datapack adds or removes a structure, so the table is an
+ * append-only palette saved with the world ({@code data/em4es_structure_palette.dat}). Each world's palette
+ * has a random fingerprint that is saved next to every bitset, so a merchant copied in from another world
+ * is recognised and its offered set dropped instead of being read with the wrong indices.
+ * <p>
+ * Lookups are lock-free and safe from any thread. Until the overworld loads (and in benchmarks) the table
+ * lives in memory only with fingerprint 0.
+ */
+public final class StructureIndexTable extends PersistentState {
+
+    private static final String NAME = "em4es_structure_palette";
+    private static final PersistentState.Type<StructureIndexTable> TYPE =
+            new PersistentState.Type<>(StructureIndexTable::create, StructureIndexTable::fromNbt, null);
+
+    private static volatile StructureIndexTable current = new StructureIndexTable(0);
+
+    private final int fingerprint;
+    private final Map<Identifier, Integer> indices = new ConcurrentHashMap<>();
+    private volatile Identifier[] ids = new Identifier[0];
+
+    private StructureIndexTable(int fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Switches to the palette saved with this world. Called when the overworld loads, before any entity does.
+     */
+    public static void bind(ServerWorld overworld) {
+        current = overworld.getPersistentStateManager().getOrCreate(TYPE, NAME);
+    }
+
+    public static void clear() {
+        current = new StructureIndexTable(0);
+    }
+
+    public static int fingerprint() {
+        return current.fingerprint;
+    }
+
+    /**
+     * The index of a structure, assigning the next free one if it has none yet.
+     */
+    public static int indexOf(Identifier id) {
+        StructureIndexTable table = current;
+        Integer index = table.indices.get(id);
+        return index != null ? index : table.append(id);
+    }
+
+    /**
+     * The index of a structure, or -1 if it was never assigned one. Never changes the table.
+     */
+    public static int find(Identifier id) {
+        Integer index = current.indices.get(id);
+        return index != null ? index : -1;
+    }
+
+    @Nullable
+    public static Identifier idAt(int index) {
+        Identifier[] ids = current.ids;
+        return index >= 0 && index < ids.length ? ids[index] : null;
+    }
+
+    private synchronized int append(Identifier id) {
+        Integer existing = indices.get(id);
+        if (existing != null) return existing;
+
+        int index = ids.length;
+        Identifier[] grown = Arrays.copyOf(ids, index + 1);
+        grown[index] = id;
+        // Publish the array before the index, so anyone who finds the index can resolve it
+        ids = grown;
+        indices.put(id, index);
+        markDirty();
+        return index;
+    }
+
+    private static StructureIndexTable create() {
+        int fingerprint;
+        do {
+            fingerprint = ThreadLocalRandom.current().nextInt();
+        } while (fingerprint == 0);
+        return new StructureIndexTable(fingerprint);
+    }
+
+    @Override
+    public NbtCompound writeNbt(NbtCompound nbt, RegistryWrapper.WrapperLookup registries) {
+        nbt.putInt("Fingerprint", fingerprint);
+        NbtList palette = new NbtList();
+        for (Identifier id : ids) {
+            palette.add(NbtString.of(id.toString()));
+        }
+        nbt.put("Palette", palette);
+        return nbt;
+    }
+
+    private static StructureIndexTable fromNbt(NbtCompound nbt, RegistryWrapper.WrapperLookup registries) {
+        StructureIndexTable table = new StructureIndexTable(nbt.getInt("Fingerprint"));
+        NbtList palette = nbt.getList("Palette", NbtElement.STRING_TYPE);
+        Identifier[] ids = new Identifier[palette.size()];
+        for (int i = 0; i < ids.length; i++) {
+            // Keep unparseable entries as placeholders so later indices do not shift
+            Identifier id = Identifier.tryParse(palette.getString(i));
+            ids[i] = id != null ? id : Identifier.of("em4es", "invalid_" + i);
+            table.indices.put(ids[i], i);
+        }
+        table.ids = ids;
+        return table;
+    }
+}
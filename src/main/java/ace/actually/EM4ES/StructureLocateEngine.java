@@ -0,0 +1,419 @@
+package ace.actually.EM4ES;
+
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.entry.RegistryEntryList;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.structure.StructureStart;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.HeightLimitView;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.StructurePresence;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.source.BiomeCoords;
+import net.minecraft.world.biome.source.BiomeSource;
+import net.minecraft.world.biome.source.util.MultiNoiseUtil;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.gen.GenerationStep;
+import net.minecraft.world.gen.StructureAccessor;
+import net.minecraft.world.gen.chunk.ChunkGenerator;
+import net.minecraft.world.gen.chunk.placement.ConcentricRingsStructurePlacement;
+import net.minecraft.world.gen.chunk.placement.RandomSpreadStructurePlacement;
+import net.minecraft.world.gen.chunk.placement.StructurePlacement;
+import net.minecraft.world.gen.chunk.placement.StructurePlacementCalculator;
+import net.minecraft.world.gen.noise.NoiseConfig;
+import net.minecraft.world.gen.structure.Structure;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Locates many structure types in a single pass over the search area.
+ * <p>
+ * Vanilla's {@code ChunkGenerator.locateStructure} runs its own spiral for every call, so asking it for
+ * 40 structures one by one re-checks the same placement cells 40 times. Here the candidates are grouped
+ * by their {@link StructurePlacement} and every placement grid is walked exactly once, checking all of
+ * the structures that share it at each cell. The nearest hit per structure ID is kept and the closest
+ * {@code maxResults} of those are returned. Once {@code maxResults} hits are in hand, cells farther away than
+ * the worst of them are skipped, so a search for one map stops about where vanilla's would.
+ * <p>
+ * With {@link EM4ESConfig#predictiveLocate} on (off by default), chunks whose structure starts are not known yet
+ * are judged from the placement math and the biome at the height the structure would use, instead of being
+ * loaded: no chunk loads, and therefore no waiting on the server thread. Where the saved structure data
+ * already answers, that answer is used. The trade-off is that a structure which would fail a terrain check
+ * can still be reported, so such hits are never marked {@link Result#verified}.
+ */
+public final class StructureLocateEngine {
+
+    private StructureLocateEngine() {}
+
+    /**
+     * @param candidates   structures to look for (one entry per structure ID)
+     * @param radiusChunks search radius around {@code origin}, in chunks
+     * @param maxResults   how many distinct structures to return at most
+     * @param handle       polled between cells; the walk stops once it is cancelled or past its deadline
+     * @return up to {@code maxResults} hits, nearest first, each with a distinct structure ID, plus the
+     * candidates whose whole search area was walked without a hit
+     */
+    public static Result locate(ServerWorld world, BlockPos origin, List<RegistryEntry<Structure>> candidates,
+                                                     int radiusChunks, int maxResults, SearchHandle handle) {
+        if (candidates.isEmpty() || maxResults <= 0) return Result.EMPTY;
+
+        StructurePlacementCalculator calculator = world.getChunkManager().getStructurePlacementCalculator();
+        StructureAccessor structureAccessor = world.getStructureAccessor();
+        Predictor predictor = EM4ES.config().predictiveLocate ? new Predictor(world, calculator) : null;
+
+        // 1. Group the candidates by placement so each grid is only walked once
+        Map<StructurePlacement, List<RegistryEntry<Structure>>> groups = new LinkedHashMap<>();
+        for (RegistryEntry<Structure> entry : candidates) {
+            for (StructurePlacement placement : calculator.getPlacements(entry)) {
+                groups.computeIfAbsent(placement, p -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        long maxDistanceSq = (long) radiusChunks * 16L * radiusChunks * 16L;
+        Map<Identifier, Hit> nearest = new HashMap<>();
+        // Anything not walked to completion (deadline, errors) has not been proven absent
+        Set<Identifier> inconclusive = new HashSet<>();
+        // Each group's walk time, split evenly between the structures in it
+        Map<Identifier, Long> walkNanos = new HashMap<>();
+
+        // 2. Walk every placement grid once
+        for (Map.Entry<StructurePlacement, List<RegistryEntry<Structure>>> group : groups.entrySet()) {
+            Search search = new Search(world, structureAccessor, predictor, origin, maxDistanceSq, maxResults, group.getKey(), group.getValue(), nearest, inconclusive);
+            boolean completed = false;
+            long started = System.nanoTime();
+            if (!handle.shouldStop()) {
+                if (group.getKey() instanceof RandomSpreadStructurePlacement randomSpread) {
+                    completed = walkRandomSpread(randomSpread, calculator.getStructureSeed(), origin, radiusChunks, handle, search);
+                } else if (group.getKey() instanceof ConcentricRingsStructurePlacement rings) {
+                    completed = search.walkConcentricRings(calculator, rings, handle);
+                }
+            }
+            if (!completed) search.markRemainingInconclusive();
+
+            long share = (System.nanoTime() - started) / group.getValue().size();
+            for (RegistryEntry<Structure> entry : group.getValue()) {
+                entry.getKey().ifPresent(key -> walkNanos.merge(key.getValue(), share, Long::sum));
+            }
+        }
+
+        // 3. Closest distinct structures first
+        List<Hit> closest = nearest.values().stream()
+                .sorted(Comparator.comparingLong(Hit::distanceSq))
+                .limit(maxResults)
+                .toList();
+        List<StructureSearchResult> hits = new ArrayList<>(closest.size());
+        List<StructureSearchResult> verified = new ArrayList<>(closest.size());
+        for (Hit hit : closest) {
+            StructureSearchResult result = new StructureSearchResult(hit.pos(), hit.id());
+            hits.add(result);
+            if (hit.verified()) verified.add(result);
+        }
+
+        Set<Identifier> absent = new HashSet<>();
+        for (RegistryEntry<Structure> entry : candidates) {
+            entry.getKey().ifPresent(key -> absent.add(key.getValue()));
+        }
+        absent.removeAll(nearest.keySet());
+        absent.removeAll(inconclusive);
+        return new Result(List.copyOf(hits), List.copyOf(verified), absent, Set.copyOf(nearest.keySet()), walkNanos);
+    }
+
+    /**
+     * @param hits      nearest distinct structures, nearest first
+     * @param verified  those of {@code hits} confirmed by a structure start rather than predicted
+     * @param absent    candidates that were searched over the whole radius and not found
+     * @param found     every candidate found within the radius, including those cut by {@code maxResults}
+     * @param walkNanos time spent walking grids, per candidate
+     */
+    public record Result(List<StructureSearchResult> hits, List<StructureSearchResult> verified, Set<Identifier> absent,
+                         Set<Identifier> found, Map<Identifier, Long> walkNanos) {
+        static final Result EMPTY = new Result(List.of(), List.of(), Set.of(), Set.of(), Map.of());
+    }
+
+    /**
+     * Answers "would this structure start here?" from {@link StructurePlacement}, the biome source and the
+     * noise heights only.
+     */
+    private static final class Predictor {
+        // Underground structures (ancient cities, trial chambers) sample the whole column for their cave biomes
+        private static final int Y_STEP = 32;
+
+        private final StructurePlacementCalculator calculator;
+        private final ChunkGenerator generator;
+        private final BiomeSource biomeSource;
+        private final NoiseConfig noiseConfig;
+        private final MultiNoiseUtil.MultiNoiseSampler sampler;
+        private final HeightLimitView heightLimit;
+        private final boolean ceiling;
+        private final int seaLevel;
+
+        Predictor(ServerWorld world, StructurePlacementCalculator calculator) {
+            this.calculator = calculator;
+            this.generator = world.getChunkManager().getChunkGenerator();
+            this.biomeSource = generator.getBiomeSource();
+            this.noiseConfig = world.getChunkManager().getNoiseConfig();
+            this.sampler = noiseConfig.getMultiNoiseSampler();
+            this.heightLimit = HeightLimitView.create(world.getBottomY(), world.getHeight());
+            this.ceiling = world.getDimension().hasCeiling();
+            this.seaLevel = generator.getSeaLevel();
+        }
+
+        boolean predict(StructurePlacement placement, Structure structure, ChunkPos pos) {
+            // Frequency reduction and exclusion zones are pure placement math
+            if (!placement.shouldGenerate(calculator, pos.x, pos.z)) return false;
+
+            RegistryEntryList<Biome> validBiomes = structure.getValidBiomes();
+            int blockX = pos.getCenterX();
+            int blockZ = pos.getCenterZ();
+            int biomeX = BiomeCoords.fromBlock(blockX);
+            int biomeZ = BiomeCoords.fromBlock(blockZ);
+
+            // Surface structures check the biome where they stand, like the map preview samples it.
+            // Under a ceiling the noise height is the roof, so those dimensions scan the column as well.
+            if (!ceiling && !isUnderground(structure)) {
+                int y = generator.getHeightOnGround(blockX, blockZ, Heightmap.Type.OCEAN_FLOOR_WG, heightLimit, noiseConfig);
+                return validBiomes.contains(biomeSource.getBiome(biomeX, BiomeCoords.fromBlock(y), biomeZ, sampler));
+            }
+
+            if (validBiomes.contains(biomeSource.getBiome(biomeX, BiomeCoords.fromBlock(seaLevel), biomeZ, sampler))) return true;
+            for (int y = heightLimit.getBottomY(); y < heightLimit.getTopY(); y += Y_STEP) {
+                if (validBiomes.contains(biomeSource.getBiome(biomeX, BiomeCoords.fromBlock(y), biomeZ, sampler))) return true;
+            }
+            return false;
+        }
+
+        private static boolean isUnderground(Structure structure) {
+            GenerationStep.Feature step = structure.getFeatureGenerationStep();
+            return step == GenerationStep.Feature.UNDERGROUND_STRUCTURES
+                    || step == GenerationStep.Feature.UNDERGROUND_DECORATION
+                    || step == GenerationStep.Feature.STRONGHOLDS;
+        }
+    }
+
+    private record Hit(BlockPos pos, Identifier id, long distanceSq, boolean verified) {}
+
+    /**
+     * What a placement walk does at the cells it reaches.
+     */
+    interface CellChecker {
+        /** Nothing is left to look for; the walk ends. */
+        boolean isDone();
+
+        /** Cells farther than this (squared blocks) cannot improve the result and are skipped. */
+        long bound();
+
+        void check(ChunkPos start, long distanceSq);
+
+        /** Called after each ring of the grid has been checked. */
+        void endRing();
+    }
+
+    /**
+     * Walks a random-spread grid outwards from {@code origin} in square rings of cells, handing every
+     * cell start within the radius and the checker's bound to {@code checker}.
+     *
+     * @return false if the handle or the checker's bound cut the walk short
+     */
+    static boolean walkRandomSpread(RandomSpreadStructurePlacement randomSpread, long seed, BlockPos origin, int radiusChunks,
+                                    SearchHandle handle, CellChecker checker) {
+        int spacing = randomSpread.getSpacing();
+        ChunkPos originChunk = new ChunkPos(origin);
+        long maxDistanceSq = (long) radiusChunks * 16L * radiusChunks * 16L;
+        // One extra ring because a cell's start chunk can sit anywhere inside the cell
+        int maxRing = radiusChunks / spacing + 1;
+        boolean complete = true;
+
+        for (int ring = 0; ring <= maxRing && !checker.isDone(); ring++) {
+            // Every cell of this ring is at least this far away, so nothing in it can beat the hits in hand
+            long ringDistance = (long) Math.max(0, ring - 1) * spacing * 16L;
+            long bound = checker.bound();
+            if (ringDistance * ringDistance > bound) return false;
+
+            for (int dx = -ring; dx <= ring; dx++) {
+                boolean edgeX = dx == -ring || dx == ring;
+                for (int dz = -ring; dz <= ring; dz++) {
+                    boolean edgeZ = dz == -ring || dz == ring;
+                    if (!edgeX && !edgeZ) continue;
+                    if (handle.shouldStop()) return false;
+
+                    ChunkPos start = randomSpread.getStartChunk(seed, originChunk.x + spacing * dx, originChunk.z + spacing * dz);
+                    BlockPos locatePos = randomSpread.getLocatePos(start);
+                    long ddx = locatePos.getX() - origin.getX();
+                    long ddz = locatePos.getZ() - origin.getZ();
+                    long distanceSq = ddx * ddx + ddz * ddz;
+                    if (distanceSq > maxDistanceSq) continue;
+                    if (distanceSq > bound) {
+                        complete = false;
+                        continue;
+                    }
+
+                    checker.check(start, distanceSq);
+                }
+            }
+            checker.endRing();
+        }
+        return complete;
+    }
+
+    /**
+     * State for walking a single placement grid.
+     */
+    private static final class Search implements CellChecker {
+        private final ServerWorld world;
+        private final StructureAccessor structureAccessor;
+        @Nullable
+        private final Predictor predictor;
+        private final BlockPos origin;
+        private final long maxDistanceSq;
+        private final int maxResults;
+        private final StructurePlacement placement;
+        private final List<RegistryEntry<Structure>> remaining;
+        private final Map<Identifier, Hit> nearest;
+        private final Set<Identifier> inconclusive;
+        // Found structures stay in the walk until the ring is done: a later cell of it may be closer
+        private final Set<RegistryEntry<Structure>> foundInRing = new HashSet<>();
+
+        Search(ServerWorld world, StructureAccessor structureAccessor, @Nullable Predictor predictor, BlockPos origin, long maxDistanceSq,
+               int maxResults, StructurePlacement placement, List<RegistryEntry<Structure>> structures,
+               Map<Identifier, Hit> nearest, Set<Identifier> inconclusive) {
+            this.world = world;
+            this.structureAccessor = structureAccessor;
+            this.predictor = predictor;
+            this.origin = origin;
+            this.maxDistanceSq = maxDistanceSq;
+            this.maxResults = maxResults;
+            this.placement = placement;
+            this.remaining = new ArrayList<>(structures);
+            this.nearest = nearest;
+            this.inconclusive = inconclusive;
+        }
+
+        void markRemainingInconclusive() {
+            for (RegistryEntry<Structure> entry : remaining) {
+                entry.getKey().ifPresent(key -> inconclusive.add(key.getValue()));
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return remaining.isEmpty();
+        }
+
+        @Override
+        public long bound() {
+            return worstKeptDistanceSq();
+        }
+
+        @Override
+        public void check(ChunkPos start, long distanceSq) {
+            checkCell(start, foundInRing);
+        }
+
+        @Override
+        public void endRing() {
+            remaining.removeAll(foundInRing);
+            foundInRing.clear();
+        }
+
+        boolean walkConcentricRings(StructurePlacementCalculator calculator, ConcentricRingsStructurePlacement rings, SearchHandle handle) {
+            List<ChunkPos> positions = calculator.getPlacementPositions(rings);
+            if (positions == null) return false;
+
+            List<ChunkPos> sorted = positions.stream()
+                    .filter(pos -> isInRange(placement.getLocatePos(pos)))
+                    .sorted(Comparator.comparingLong(pos -> distanceSq(placement.getLocatePos(pos))))
+                    .toList();
+
+            Set<RegistryEntry<Structure>> found = new HashSet<>();
+            for (ChunkPos pos : sorted) {
+                if (remaining.isEmpty()) break;
+                if (handle.shouldStop()) return false;
+                // Sorted nearest first, so every later position is beyond the bound as well
+                if (distanceSq(placement.getLocatePos(pos)) > worstKeptDistanceSq()) return false;
+
+                checkCell(pos, found);
+                remaining.removeAll(found);
+                found.clear();
+            }
+            return true;
+        }
+
+        /**
+         * The distance a new hit has to beat to make the {@code maxResults} nearest, or {@link Long#MAX_VALUE}
+         * while fewer hits than that are in hand.
+         */
+        private long worstKeptDistanceSq() {
+            if (nearest.size() < maxResults) return Long.MAX_VALUE;
+            long[] distances = new long[nearest.size()];
+            int i = 0;
+            for (Hit hit : nearest.values()) {
+                distances[i++] = hit.distanceSq();
+            }
+            Arrays.sort(distances);
+            return distances[maxResults - 1];
+        }
+
+        /**
+         * Checks every still-missing structure of this placement at one candidate start chunk. Structures
+         * found here are added to {@code found}; the caller takes them out of the walk.
+         */
+        private void checkCell(ChunkPos pos, Set<RegistryEntry<Structure>> found) {
+            Iterator<RegistryEntry<Structure>> it = remaining.iterator();
+            while (it.hasNext()) {
+                RegistryEntry<Structure> entry = it.next();
+                try {
+                    Identifier id = entry.getKey().orElseThrow().getValue();
+                    Hit hit = checkStructure(entry.value(), id, pos);
+                    if (hit == null) continue;
+
+                    nearest.merge(id, hit, (a, b) -> a.distanceSq() <= b.distanceSq() ? a : b);
+                    found.add(entry);
+                } catch (Exception e) {
+                    // A broken (usually modded) structure must not stop the rest of the walk
+                    EM4ES.LOGGER.debug("Skipping structure {} during locate", entry.getIdAsString(), e);
+                    entry.getKey().ifPresent(key -> inconclusive.add(key.getValue()));
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * Same checks vanilla's locate does for a single start chunk.
+         */
+        @Nullable
+        private Hit checkStructure(Structure structure, Identifier id, ChunkPos pos) {
+            StructurePresence presence = structureAccessor.getStructurePresence(pos, structure, placement, false);
+            if (presence == StructurePresence.START_NOT_PRESENT) return null;
+            if (presence == StructurePresence.START_PRESENT) return hit(placement.getLocatePos(pos), id, true);
+
+            // Only guess where the answer would otherwise take a chunk load
+            if (predictor != null) {
+                return predictor.predict(placement, structure, pos) ? hit(placement.getLocatePos(pos), id, false) : null;
+            }
+
+            Chunk chunk = world.getChunk(pos.x, pos.z, ChunkStatus.STRUCTURE_STARTS);
+            StructureStart start = structureAccessor.getStructureStart(ChunkSectionPos.from(chunk), structure, chunk);
+            if (start == null || !start.hasChildren()) return null;
+            return hit(placement.getLocatePos(start.getPos()), id, true);
+        }
+
+        private Hit hit(BlockPos pos, Identifier id, boolean verified) {
+            return new Hit(pos, id, distanceSq(pos), verified);
+        }
+
+        private boolean isInRange(BlockPos pos) {
+            return distanceSq(pos) <= maxDistanceSq;
+        }
+
+        private long distanceSq(BlockPos pos) {
+            long dx = pos.getX() - origin.getX();
+            long dz = pos.getZ() - origin.getZ();
+            return dx * dx + dz * dz;
+        }
+    }
+}
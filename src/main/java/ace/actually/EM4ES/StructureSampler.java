@@ -0,0 +1,258 @@
+package ace.actually.EM4ES;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+import net.minecraft.world.gen.structure.Structure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * The structures a search in one dimension may pick from, prepared once per config snapshot.
+ * <p>
+ * Holds the feasible candidates as parallel arrays (identifier, resolved registry entry, weight from
+ * {@link EM4ESConfig#weights}) and a Vose alias table over the weights, so every draw is O(1). Structures
+ * a search must skip are tested lazily, only when drawn, and remembered in a per-thread bitset; once
+ * draws keep landing on structures already tried, the rest is finished with a linear weighted pass.
+ * Scratch memory is per thread, so selection allocates nothing once a search worker has warmed up.
+ * <p>
+ * Rebuilt for a dimension the first time it is used after {@code /em4es reload} swaps the config.
+ */
+public final class StructureSampler {
+
+    // Consecutive draws of already tried structures before switching to the linear pass
+    private static final int MAX_REPEAT_DRAWS = 16;
+
+    private static final Map<RegistryKey<World>, StructureSampler> SAMPLERS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<long[][]> SEEN = ThreadLocal.withInitial(() -> new long[1][0]);
+    private static final ThreadLocal<int[][]> PICKS = ThreadLocal.withInitial(() -> new int[1][0]);
+
+    private final EM4ESConfig config;
+    private final Identifier[] ids;
+    private final List<RegistryEntry<Structure>> entries;
+    private final double[] weights;
+    private final double[] probability;
+    private final int[] alias;
+    private final Object2IntOpenHashMap<Identifier> indices;
+
+    private StructureSampler(EM4ESConfig config, Identifier[] ids, List<RegistryEntry<Structure>> entries, double[] weights) {
+        this.config = config;
+        this.ids = ids;
+        this.entries = entries;
+        this.weights = weights;
+        this.indices = new Object2IntOpenHashMap<>(ids.length);
+        this.indices.defaultReturnValue(-1);
+        for (int i = 0; i < ids.length; i++) {
+            indices.put(ids[i], i);
+        }
+
+        // Vose's alias method: every column holds at most two outcomes, so a draw is one index and one coin
+        int n = weights.length;
+        this.probability = new double[n];
+        this.alias = new int[n];
+        double total = 0;
+        for (double weight : weights) total += weight;
+
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1.0) small[smallCount++] = i;
+            else large[largeCount++] = i;
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] += scaled[less] - 1.0;
+            if (scaled[more] < 1.0) small[smallCount++] = more;
+            else large[largeCount++] = more;
+        }
+        // Whatever is left is 1 up to rounding
+        while (largeCount > 0) probability[large[--largeCount]] = 1.0;
+        while (smallCount > 0) probability[small[--smallCount]] = 1.0;
+    }
+
+    /**
+     * The sampler for a world under the given config, building it if the config changed since.
+     */
+    public static StructureSampler forWorld(ServerWorld world, EM4ESConfig config) {
+        StructureSampler sampler = SAMPLERS.get(world.getRegistryKey());
+        if (sampler != null && sampler.config == config) return sampler;
+
+        sampler = build(world, config);
+        SAMPLERS.put(world.getRegistryKey(), sampler);
+        return sampler;
+    }
+
+    public static void clear() {
+        SAMPLERS.clear();
+    }
+
+    private static StructureSampler build(ServerWorld world, EM4ESConfig config) {
+        Registry<Structure> registry = world.getRegistryManager().get(RegistryKeys.STRUCTURE);
+        // Before the server has started the snapshot has no candidates yet
+        List<RegistryKey<Structure>> candidates = config.candidates.isEmpty() ? config.withCandidates(registry).candidates : config.candidates;
+        Set<RegistryKey<Structure>> feasible = StructureFeasibility.feasibleIn(world);
+
+        List<Identifier> ids = new ArrayList<>();
+        List<RegistryEntry<Structure>> entries = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (RegistryKey<Structure> key : candidates) {
+            double weight = config.weightFor(key.getValue());
+            if (weight <= 0 || !feasible.contains(key)) continue;
+            registry.getEntry(key).ifPresent(entry -> {
+                ids.add(key.getValue());
+                entries.add(entry);
+                weights.add(weight);
+            });
+        }
+        return of(config, ids, entries, weights.stream().mapToDouble(Double::doubleValue).toArray());
+    }
+
+    /**
+     * A sampler over explicit candidates. {@code entries} may hold {@code null}s where no registry is at hand (benchmarks).
+     */
+    static StructureSampler of(EM4ESConfig config, List<Identifier> ids, List<RegistryEntry<Structure>> entries, double[] weights) {
+        return new StructureSampler(config, ids.toArray(new Identifier[0]), Collections.unmodifiableList(new ArrayList<>(entries)), weights.clone());
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public Identifier id(int index) {
+        return ids[index];
+    }
+
+    public RegistryEntry<Structure> entry(int index) {
+        return entries.get(index);
+    }
+
+    public double weight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * The index of a structure in this sampler, or -1 if it is not a candidate here.
+     */
+    public int indexOf(Identifier id) {
+        return indices.getInt(id);
+    }
+
+    /**
+     * A per-thread array for at least {@code size} picks. Valid until the thread's next call.
+     */
+    public static int[] picks(int size) {
+        int[][] holder = PICKS.get();
+        if (holder[0].length < size) holder[0] = new int[Math.max(size, holder[0].length * 2)];
+        return holder[0];
+    }
+
+    /**
+     * Cleared per-thread bitset with room for this sampler's indices.
+     */
+    private long[] seen() {
+        long[][] holder = SEEN.get();
+        int words = (ids.length + 63) >>> 6;
+        if (holder[0].length < words) {
+            holder[0] = new long[words];
+        } else {
+            Arrays.fill(holder[0], 0, words, 0L);
+        }
+        return holder[0];
+    }
+
+    /**
+     * Draws up to {@code limit} distinct structures in proportion to their weights, leaving out those
+     * {@code excluded} accepts. Writes their indices to {@code out} in draw order.
+     *
+     * @return how many were drawn
+     */
+    public int sample(IntPredicate excluded, int limit, int[] out) {
+        int n = ids.length;
+        if (n == 0 || limit <= 0) return 0;
+
+        long[] seen = seen();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int picked = 0;
+        int tried = 0;
+        int repeats = 0;
+        while (picked < limit && tried < n) {
+            int index = draw(random);
+            if (isSet(seen, index)) {
+                if (++repeats > MAX_REPEAT_DRAWS) break;
+                continue;
+            }
+            set(seen, index);
+            tried++;
+            repeats = 0;
+            if (!excluded.test(index)) out[picked++] = index;
+        }
+        if (picked < limit && tried < n) {
+            picked = sampleRemaining(excluded, limit, out, picked, seen, random);
+        }
+        return picked;
+    }
+
+    private int draw(ThreadLocalRandom random) {
+        int column = random.nextInt(ids.length);
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+
+    /**
+     * Most of the weight is already tried: weigh what is left directly instead of drawing blind.
+     */
+    private int sampleRemaining(IntPredicate excluded, int limit, int[] out, int picked, long[] seen, ThreadLocalRandom random) {
+        double remaining = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (isSet(seen, i)) continue;
+            if (excluded.test(i)) {
+                set(seen, i);
+            } else {
+                remaining += weights[i];
+            }
+        }
+
+        while (picked < limit && remaining > 0) {
+            double target = random.nextDouble() * remaining;
+            int chosen = -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (isSet(seen, i)) continue;
+                chosen = i;
+                target -= weights[i];
+                if (target < 0) break;
+            }
+            if (chosen < 0) break;
+            set(seen, chosen);
+            remaining -= weights[chosen];
+            out[picked++] = chosen;
+        }
+        return picked;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+}
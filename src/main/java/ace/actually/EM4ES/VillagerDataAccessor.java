@@ -1,10 +1,10 @@
 package ace.actually.EM4ES;
 
-import net.minecraft.util.Identifier;
-import java.util.Set;
+import java.util.Deque;
 
 public interface VillagerDataAccessor {
-    Set<Identifier> getOfferedStructureMaps();
+    // Safe to read from any thread, see OfferedStructureSet
+    OfferedStructureSet getOfferedStructureMaps();
 
     boolean isSearching();
     void setSearching(boolean searching);
@@ -12,4 +12,9 @@ public interface VillagerDataAccessor {
     // NEW METHODS FOR LEVEL MEMORY
     int getLastMapLevelGenerated();
     void setLastMapLevelGenerated(int level);
+
+    // Results queued for the next restock, see MapPrefetch
+    Deque<StructureSearchResult> getPrefetchedMaps();
+    boolean isPrefetching();
+    void setPrefetching(boolean prefetching);
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package ace.actually.EM4ES.mixin;
+
+import ace.actually.EM4ES.LazyExplorerMap;
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.FilledMapItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.World;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(FilledMapItem.class)
+public abstract class FilledMapItemMixin {
+
+    /**
+     * Bought or decoded explorer maps carry no map ID until they reach a player's inventory.
+     * Allocate it before vanilla looks the map state up.
+     */
+    @Inject(method = "inventoryTick", at = @At("HEAD"))
+    private void materializeExplorerMap(ItemStack stack, World world, Entity entity, int slot, boolean selected, CallbackInfo ci) {
+        if (!(world instanceof ServerWorld serverWorld) || !(entity instanceof PlayerEntity)) return;
+        if (!stack.contains(DataComponentTypes.CUSTOM_DATA)) return;
+        LazyExplorerMap.materialize(serverWorld, stack);
+    }
+}
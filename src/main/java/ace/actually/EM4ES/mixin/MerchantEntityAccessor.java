@@ -0,0 +1,16 @@
+package ace.actually.EM4ES.mixin;
+
+import net.minecraft.entity.passive.MerchantEntity;
+import net.minecraft.village.TradeOfferList;
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(MerchantEntity.class)
+public interface MerchantEntityAccessor {
+
+    // The offers field itself; getOffers() would run fillRecipes if there are none yet
+    @Nullable
+    @Accessor("offers")
+    TradeOfferList getOffersOrNull();
+}
@@ -1,35 +1,44 @@
 package ace.actually.EM4ES.mixin;
 
+import ace.actually.EM4ES.MapPrefetch;
+import ace.actually.EM4ES.MapStockEngine;
+import ace.actually.EM4ES.OfferedMapsNbt;
+import ace.actually.EM4ES.OfferedStructureSet;
+import ace.actually.EM4ES.StructureSearchResult;
 import ace.actually.EM4ES.VillagerDataAccessor;
 import net.minecraft.entity.passive.WanderingTraderEntity;
 import net.minecraft.nbt.NbtCompound;
-import net.minecraft.nbt.NbtElement;
-import net.minecraft.nbt.NbtList;
-import net.minecraft.nbt.NbtString;
-import net.minecraft.util.Identifier;
+import net.minecraft.village.TradeOfferList;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 @Mixin(WanderingTraderEntity.class)
 public abstract class WanderingTraderEntityMixin implements VillagerDataAccessor {
 
     @Unique
-    private Set<Identifier> em4es_offeredStructureMaps = new HashSet<>();
+    private final OfferedStructureSet em4es_offeredStructureMaps = new OfferedStructureSet();
     @Unique
     private boolean em4es_isSearching = false;
+    @Unique
+    private final Deque<StructureSearchResult> em4es_prefetchedMaps = new ArrayDeque<>();
+    @Unique
+    private boolean em4es_isPrefetching = false;
 
     @Unique
     private int em4es_lastMapLevelGenerated = 0;
 
-    @Override public Set<Identifier> getOfferedStructureMaps() { return this.em4es_offeredStructureMaps; }
+    @Override public OfferedStructureSet getOfferedStructureMaps() { return this.em4es_offeredStructureMaps; }
     @Override public boolean isSearching() { return this.em4es_isSearching; }
     @Override public void setSearching(boolean searching) { this.em4es_isSearching = searching; }
+    @Override public Deque<StructureSearchResult> getPrefetchedMaps() { return this.em4es_prefetchedMaps; }
+    @Override public boolean isPrefetching() { return this.em4es_isPrefetching; }
+    @Override public void setPrefetching(boolean prefetching) { this.em4es_isPrefetching = prefetching; }
 
     @Override
     public int getLastMapLevelGenerated() {
@@ -43,28 +52,18 @@ public abstract class WanderingTraderEntityMixin implements VillagerDataAccessor
 
     @Inject(method = "writeCustomDataToNbt", at = @At("TAIL"))
     private void writeOfferedMapsToNbt(NbtCompound nbt, CallbackInfo ci) {
-        if (!this.em4es_offeredStructureMaps.isEmpty()) {
-            NbtList offeredList = new NbtList();
-            for (Identifier id : this.em4es_offeredStructureMaps) {
-                offeredList.add(NbtString.of(id.toString()));
-            }
-            nbt.put("EM4ES_OfferedMaps", offeredList);
-        }
+        OfferedMapsNbt.write(this.em4es_offeredStructureMaps, nbt);
         nbt.putInt("EM4ES_LastMapLevel", this.em4es_lastMapLevelGenerated);
+        MapPrefetch.writeNbt(this.em4es_prefetchedMaps, nbt);
     }
 
     @Inject(method = "readCustomDataFromNbt", at = @At("TAIL"))
     private void readOfferedMapsFromNbt(NbtCompound nbt, CallbackInfo ci) {
-        if (nbt.contains("EM4ES_OfferedMaps", NbtElement.LIST_TYPE)) {
-            NbtList offeredList = nbt.getList("EM4ES_OfferedMaps", NbtElement.STRING_TYPE);
-            this.em4es_offeredStructureMaps.clear();
-            for (NbtElement element : offeredList) {
-                Identifier id = Identifier.tryParse(element.asString());
-                if (id != null) {
-                    this.em4es_offeredStructureMaps.add(id);
-                }
-            }
-        }
+        OfferedMapsNbt.read(this.em4es_offeredStructureMaps, nbt);
         this.em4es_lastMapLevelGenerated = nbt.getInt("EM4ES_LastMapLevel");
+        MapPrefetch.readNbt(this.em4es_prefetchedMaps, nbt);
+        // Placeholders saved mid-search would otherwise stay forever
+        TradeOfferList offers = ((MerchantEntityAccessor) this).getOffersOrNull();
+        if (offers != null) MapStockEngine.stripStalePlaceholders(offers);
     }
 }
\ No newline at end of file